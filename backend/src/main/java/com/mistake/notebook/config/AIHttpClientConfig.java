@@ -0,0 +1,74 @@
+package com.mistake.notebook.config;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI 调用共享 HTTP 传输配置：文本（SimpleOpenAIClient）与视觉（VisionReasoningService）
+ * 共用同一个连接池和调度器，避免每个服务各自建连、重复 TLS 握手。
+ */
+@Configuration
+@Slf4j
+public class AIHttpClientConfig {
+
+    @Value("${ai.http.http2-enabled:true}")
+    private boolean http2Enabled;
+
+    @Value("${ai.http.max-idle-connections:20}")
+    private int maxIdleConnections;
+
+    @Value("${ai.http.keep-alive-seconds:300}")
+    private long keepAliveSeconds;
+
+    @Value("${ai.http.max-requests:128}")
+    private int maxRequests;
+
+    @Value("${ai.http.max-requests-per-host:64}")
+    private int maxRequestsPerHost;
+
+    @Value("${ai.http.connect-timeout-seconds:60}")
+    private long connectTimeoutSeconds;
+
+    @Value("${ai.http.read-timeout-seconds:180}")
+    private long readTimeoutSeconds;
+
+    @Value("${ai.http.write-timeout-seconds:60}")
+    private long writeTimeoutSeconds;
+
+    /**
+     * 共享的 AI OkHttpClient
+     */
+    @Bean(name = "aiHttpClient")
+    public OkHttpClient aiHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        // OkHttp 默认每个 host 只允许 5 个并发异步请求，DashScope 只有一个 host，必须放开
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        List<Protocol> protocols = http2Enabled
+                ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                : List.of(Protocol.HTTP_1_1);
+
+        log.info("初始化AI共享HTTP客户端：http2={}，连接池={}个/{}秒，最大并发={}（单host {}）",
+                http2Enabled, maxIdleConnections, keepAliveSeconds, maxRequests, maxRequestsPerHost);
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .protocols(protocols)
+                .retryOnConnectionFailure(true)
+                .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(writeTimeoutSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+}
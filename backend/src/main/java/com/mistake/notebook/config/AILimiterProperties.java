@@ -0,0 +1,103 @@
+package com.mistake.notebook.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 大模型出站限流配置（按模型区分）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "ai.limiter")
+public class AILimiterProperties {
+
+    /**
+     * 是否启用出站限流
+     */
+    private boolean enabled = true;
+
+    /**
+     * 排队等待许可的最长时间（秒），超时直接失败，由调用方走兜底逻辑
+     */
+    private long queueTimeoutSeconds = 30;
+
+    /**
+     * 每个模型最多排队的请求数
+     */
+    private int maxQueue = 500;
+
+    /**
+     * 未单独配置的模型使用的默认额度
+     */
+    private ModelLimit defaults = new ModelLimit();
+
+    /**
+     * 按模型名覆盖额度，例如 ai.limiter.models.qwen-plus.rpm=1200
+     */
+    private Map<String, ModelLimit> models = new HashMap<>();
+
+    /**
+     * 优先级通道配置，例如 ai.limiter.lanes.bulk.max-share=0.5；未配置的通道不限份额
+     */
+    private Map<AiLane, LaneLimit> lanes = new EnumMap<>(AiLane.class);
+
+    public ModelLimit forModel(String model) {
+        return models.getOrDefault(model, defaults);
+    }
+
+    public LaneLimit forLane(AiLane lane) {
+        return lanes.getOrDefault(lane, LaneLimit.UNLIMITED);
+    }
+
+    @Data
+    public static class LaneLimit {
+
+        static final LaneLimit UNLIMITED = new LaneLimit();
+
+        /**
+         * 该通道最多占用模型当前并发上限的比例（至少 1 个），其余容量为更高优先级通道预留
+         */
+        private double maxShare = 1.0;
+
+        /**
+         * 防饿死：队首请求等待超过该时长（毫秒）时，越过更高优先级通道优先获得许可；0 表示不提升
+         */
+        private long maxWaitMs = 0;
+    }
+
+    @Data
+    public static class ModelLimit {
+
+        /**
+         * 每分钟请求数上限
+         */
+        private int rpm = 600;
+
+        /**
+         * 每分钟 token 数上限（按请求预估值扣减）
+         */
+        private long tpm = 1_000_000;
+
+        /**
+         * 自适应并发：初始 / 最小 / 最大并发数
+         */
+        private int initialConcurrency = 16;
+        private int minConcurrency = 2;
+        private int maxConcurrency = 64;
+
+        /**
+         * 单次调用耗时超过该值视为上游拥塞，与 429 一样触发并发乘性下降
+         */
+        private long latencyThresholdMs = 60_000;
+
+        /**
+         * 乘性下降系数
+         */
+        private double backoffRatio = 0.7;
+    }
+}
@@ -0,0 +1,80 @@
+package com.mistake.notebook.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.function.Supplier;
+
+/**
+ * AI 任务的提交方标识（公平调度的维度）。
+ * 前端在每个请求的 X-Client-Id 头中带上本地生成的稳定标识（与 AI 对话记忆的 clientId 相同），
+ * 缺失时按来源 IP 区分；定时任务等非请求线程归为 system。
+ * 与 AiLane 一样保存在线程上下文中：请求线程由过滤器设置，AI 任务执行器按任务所属客户端设置，
+ * 因此拍照识别完成后派生的解析任务仍记在原客户端名下。
+ */
+public final class AiClient {
+
+    public static final String HEADER = "X-Client-Id";
+    public static final String SYSTEM = "system";
+
+    private static final int MAX_LENGTH = 64;
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private AiClient() {
+    }
+
+    /**
+     * 当前线程所属客户端
+     */
+    public static String current() {
+        String clientId = CURRENT.get();
+        return clientId != null ? clientId : SYSTEM;
+    }
+
+    /**
+     * 以指定客户端身份执行，结束后恢复原身份
+     */
+    public static <T> T callIn(String clientId, Supplier<T> action) {
+        String previous = bind(clientId);
+        try {
+            return action.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    public static void runIn(String clientId, Runnable action) {
+        callIn(clientId, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * 设置当前线程的客户端并返回原值（供过滤器在请求结束时 restore）
+     */
+    static String bind(String clientId) {
+        String previous = CURRENT.get();
+        CURRENT.set(clientId);
+        return previous;
+    }
+
+    static void restore(String previous) {
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * 解析请求的客户端标识：优先 X-Client-Id，其次来源 IP
+     */
+    static String resolve(HttpServletRequest request) {
+        String header = request.getHeader(HEADER);
+        if (header != null && !header.isBlank()) {
+            String clientId = header.trim();
+            return clientId.length() > MAX_LENGTH ? clientId.substring(0, MAX_LENGTH) : clientId;
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+}
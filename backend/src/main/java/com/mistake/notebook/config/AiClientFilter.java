@@ -0,0 +1,28 @@
+package com.mistake.notebook.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * 为每个请求设置 AI 任务的客户端上下文（见 AiClient），请求结束后清除
+ */
+@Component
+public class AiClientFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String previous = AiClient.bind(AiClient.resolve(request));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            AiClient.restore(previous);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.mistake.notebook.config;
+
+import java.util.function.Supplier;
+
+/**
+ * AI 调用优先级通道（按优先级从高到低）：
+ * INTERACTIVE(交互：AI 对话及其记忆写入，用户正在等待) /
+ * USER_VISIBLE(用户可见的后台任务：单题解析、拍照识别、手动重试) /
+ * BULK(批量与补偿：整页题目批量保存、恢复扫描重新入队)。
+ * 当前通道保存在线程上下文中：任务执行器按任务所属通道设置，未设置时（请求线程）视为 INTERACTIVE；
+ * 出站限流器据此决定发放许可的顺序与每个通道可占用的并发份额。
+ */
+public enum AiLane {
+    INTERACTIVE,
+    USER_VISIBLE,
+    BULK;
+
+    private static final ThreadLocal<AiLane> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 当前线程所属通道
+     */
+    public static AiLane current() {
+        AiLane lane = CURRENT.get();
+        return lane != null ? lane : INTERACTIVE;
+    }
+
+    /**
+     * 以指定通道执行，结束后恢复原通道
+     */
+    public static <T> T callIn(AiLane lane, Supplier<T> action) {
+        AiLane previous = CURRENT.get();
+        CURRENT.set(lane);
+        try {
+            return action.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    public static void runIn(AiLane lane, Runnable action) {
+        callIn(lane, () -> {
+            action.run();
+            return null;
+        });
+    }
+}
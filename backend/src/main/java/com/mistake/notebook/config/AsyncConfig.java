@@ -1,26 +1,45 @@
 package com.mistake.notebook.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
 
 /**
- * 异步任务配置：用于后台执行 AI 分类/解析、记忆总结等耗时任务，
- * 让上传保存等接口快速返回（对齐小程序的异步体验）。
+ * 异步任务配置：用于后台执行记忆总结等耗时任务，让接口快速返回（对齐小程序的异步体验）。
+ * 题目 AI 分类/解析改由数据库任务队列 + AiJobWorker 定时领取执行。
+ * 开启 spring.threads.virtual.enabled（JDK 21，virtual 配置）时，两个执行器都改为每任务一个虚拟线程，
+ * 阻塞等待大模型/数据库时不再占用平台线程。aiTaskExecutor 不设并发上限（提交方可能是流式读取等 I/O 线程，
+ * 达到上限时 SimpleAsyncTaskExecutor 会阻塞提交方），其中的大模型调用由 LlmRateLimiter 排队、数据库访问由连接池约束；
+ * aiJobExecutor 的上限与 ai.jobs.concurrency 一致，AiJobWorker 只按空闲槽位提交，不会被阻塞。
  */
 @Configuration
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig {
 
+    private static final TaskDecorator INTERACTIVE_LANE = task -> () -> AiLane.runIn(AiLane.INTERACTIVE, task);
+
     /**
-     * AI 后台处理线程池
+     * AI 后台处理线程池（交互通道：对话记忆写入等），其中的大模型调用按 INTERACTIVE 优先级排队
      */
     @Bean(name = "aiTaskExecutor")
-    public Executor aiTaskExecutor() {
+    public Executor aiTaskExecutor(Environment environment) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            SimpleAsyncTaskExecutor executor = virtualExecutor("ai-task-", SimpleAsyncTaskExecutor.UNBOUNDED_CONCURRENCY);
+            executor.setTaskDecorator(INTERACTIVE_LANE);
+            return executor;
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setTaskDecorator(INTERACTIVE_LANE);
         executor.setCorePoolSize(4);
         executor.setMaxPoolSize(8);
         executor.setQueueCapacity(200);
@@ -30,4 +49,54 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * AI 任务队列执行器：AiJobWorker 只按空闲槽位领取任务，线程数与 ai.jobs.concurrency 一致即可
+     */
+    @Bean(name = "aiJobExecutor")
+    public Executor aiJobExecutor(Environment environment,
+                                  @Value("${ai.jobs.concurrency:8}") int concurrency) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            return virtualExecutor("ai-job-", concurrency);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setQueueCapacity(concurrency);
+        executor.setThreadNamePrefix("ai-job-");
+        executor.setDaemon(true);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 流式答疑读取执行器：整段生成期间阻塞读取上游流，不占用 OkHttp 回调线程（回调返回后 Dispatcher 名额才释放），
+     * 也不与 aiTaskExecutor 中的记忆写入争抢线程
+     */
+    @Bean(name = "chatStreamExecutor")
+    public Executor chatStreamExecutor(Environment environment,
+                                       @Value("${ai.chat.stream-threads:32}") int threads) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            return virtualExecutor("chat-stream-", SimpleAsyncTaskExecutor.UNBOUNDED_CONCURRENCY);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(threads);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("chat-stream-");
+        executor.setDaemon(true);
+        executor.initialize();
+        return executor;
+    }
+
+    private SimpleAsyncTaskExecutor virtualExecutor(String threadNamePrefix, int concurrencyLimit) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(concurrencyLimit);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
 }
@@ -0,0 +1,150 @@
+package com.mistake.notebook.config;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 计数窗口熔断器。
+ * CLOSED：统计最近 windowSize 次调用，失败率或慢调用率超过阈值即打开；
+ * OPEN：openDurationMs 内直接拒绝，调用方立即走本地兜底；
+ * HALF_OPEN：放行少量探测请求，全部成功且不慢则关闭，否则重新打开。
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowRateThreshold;
+    private final long slowCallMs;
+    private final long openDurationMs;
+    private final int halfOpenProbes;
+
+    private final boolean[] failures;
+    private final boolean[] slows;
+    private int recorded;
+    private int cursor;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+    private long rejectedCalls;
+    private long openCount;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          double slowRateThreshold, long slowCallMs, long openDurationMs, int halfOpenProbes) {
+        this.name = name;
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowRateThreshold = slowRateThreshold;
+        this.slowCallMs = slowCallMs;
+        this.openDurationMs = openDurationMs;
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.failures = new boolean[this.windowSize];
+        this.slows = new boolean[this.windowSize];
+    }
+
+    /**
+     * 是否允许本次调用走远端；返回 true 后必须调用 onResult 回报结果
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDurationMs) {
+                rejectedCalls++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+            probeSuccesses = 0;
+            log.info("熔断器 {} 进入半开状态，开始探测", name);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= halfOpenProbes) {
+                rejectedCalls++;
+                return false;
+            }
+            probesInFlight++;
+        }
+        return true;
+    }
+
+    public synchronized void onResult(boolean success, long durationMs) {
+        boolean slow = durationMs > slowCallMs;
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+            if (!success || slow) {
+                open("半开探测失败");
+            } else if (++probeSuccesses >= halfOpenProbes) {
+                state = State.CLOSED;
+                resetWindow();
+                log.info("熔断器 {} 探测成功，恢复关闭状态", name);
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+
+        failures[cursor] = !success;
+        slows[cursor] = slow;
+        cursor = (cursor + 1) % windowSize;
+        recorded = Math.min(windowSize, recorded + 1);
+        if (recorded < minimumCalls) {
+            return;
+        }
+
+        double failureRate = rate(failures);
+        double slowRate = rate(slows);
+        if (failureRate >= failureRateThreshold) {
+            open(String.format("失败率 %.0f%%", failureRate * 100));
+        } else if (slowRate >= slowRateThreshold) {
+            open(String.format("慢调用率 %.0f%%", slowRate * 100));
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.name());
+        stats.put("windowCalls", recorded);
+        stats.put("failureRate", recorded == 0 ? 0.0 : rate(failures));
+        stats.put("slowRate", recorded == 0 ? 0.0 : rate(slows));
+        stats.put("openCount", openCount);
+        stats.put("rejectedCalls", rejectedCalls);
+        return stats;
+    }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        openCount++;
+        resetWindow();
+        log.warn("熔断器 {} 打开（{}），{} 毫秒内直接走本地兜底", name, reason, openDurationMs);
+    }
+
+    private void resetWindow() {
+        recorded = 0;
+        cursor = 0;
+        Arrays.fill(failures, false);
+        Arrays.fill(slows, false);
+    }
+
+    private double rate(boolean[] flags) {
+        int count = 0;
+        for (int i = 0; i < recorded; i++) {
+            if (flags[i]) count++;
+        }
+        return (double) count / recorded;
+    }
+}
@@ -2,6 +2,8 @@ package com.mistake.notebook.config;
 
 import com.mistake.notebook.entity.Category;
 import com.mistake.notebook.repository.CategoryRepository;
+import com.mistake.notebook.service.QuestionChangeService;
+import com.mistake.notebook.service.UploadJobService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.CommandLineRunner;
@@ -20,12 +22,16 @@ import java.util.List;
 public class DataInitializer implements CommandLineRunner {
 
     private final CategoryRepository categoryRepository;
+    private final QuestionChangeService questionChangeService;
+    private final UploadJobService uploadJobService;
 
     @Override
     public void run(String... args) throws Exception {
         log.info("开始初始化应用数据...");
         
         initializeCategories();
+        questionChangeService.backfill();
+        uploadJobService.completeFinishedJobs();
         
         log.info("数据初始化完成！");
     }
@@ -0,0 +1,342 @@
+package com.mistake.notebook.config;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 大模型出站限流器（按模型）。
+ * 三道闸门：RPM 令牌桶、TPM 令牌桶（按预估 token 扣减）、AIMD 自适应并发上限——
+ * 成功且耗时正常时并发上限每轮 +1，遇到 429 或耗时超过阈值时乘性下降。
+ * 拿不到许可的请求异步排队（不占线程），超过排队时限或队列已满时以 RateLimitRejectedException 失败。
+ * 排队按优先级通道（AiLane）分开：高优先级先发放；低优先级通道最多占用并发上限的 max-share，
+ * 余量留给交互请求，批量上传时对话延迟不受影响；低优先级队首等待超过 max-wait-ms 时越过高优先级，避免饿死。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LlmRateLimiter {
+
+    private final AILimiterProperties properties;
+    private final ConcurrentHashMap<String, ModelLimiter> limiters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ai-limiter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 申请一次调用许可（按当前线程的优先级通道排队）；调用结束后必须调用 Permit.release
+     */
+    public CompletableFuture<Permit> acquire(String model, long estimatedTokens) {
+        return acquire(model, estimatedTokens, AiLane.current());
+    }
+
+    /**
+     * 在指定优先级通道申请一次调用许可
+     */
+    public CompletableFuture<Permit> acquire(String model, long estimatedTokens, AiLane lane) {
+        if (!properties.isEnabled()) {
+            return CompletableFuture.completedFuture(Permit.NOOP);
+        }
+        String key = model == null || model.isBlank() ? "default" : model;
+        return limiters.computeIfAbsent(key, k -> new ModelLimiter(k, properties.forModel(k)))
+                .acquire(estimatedTokens, lane);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        limiters.forEach((model, limiter) -> stats.put(model, limiter.stats()));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 本地限流拒绝（排队超时或队列已满），请求未发往上游，不应重试
+     */
+    public static class RateLimitRejectedException extends IOException {
+        public RateLimitRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 调用许可
+     */
+    public interface Permit {
+        Permit NOOP = (statusCode, latencyMs) -> { };
+
+        /**
+         * @param statusCode HTTP 状态码，网络失败传 -1，读超时传 0
+         * @param latencyMs  调用耗时
+         */
+        void release(int statusCode, long latencyMs);
+    }
+
+    private final class ModelLimiter {
+        private final String model;
+        private final AILimiterProperties.ModelLimit limit;
+        private final Map<AiLane, Deque<Waiter>> queues = new EnumMap<>(AiLane.class);
+        private final int[] laneInFlight = new int[AiLane.values().length];
+        private final Map<AiLane, AtomicLong> laneGranted = new EnumMap<>(AiLane.class);
+
+        private double concurrencyLimit;
+        private int inFlight;
+        private int queued;
+        private double requestTokens;
+        private double tokenTokens;
+        private long lastRefill = System.nanoTime();
+        private boolean refillScheduled;
+
+        private final AtomicLong granted = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong promoted = new AtomicLong();
+
+        ModelLimiter(String model, AILimiterProperties.ModelLimit limit) {
+            this.model = model;
+            this.limit = limit;
+            this.concurrencyLimit = Math.max(limit.getMinConcurrency(), limit.getInitialConcurrency());
+            this.requestTokens = limit.getRpm();
+            this.tokenTokens = limit.getTpm();
+            for (AiLane lane : AiLane.values()) {
+                queues.put(lane, new ArrayDeque<>());
+                laneGranted.put(lane, new AtomicLong());
+            }
+        }
+
+        CompletableFuture<Permit> acquire(long estimatedTokens, AiLane lane) {
+            Waiter waiter = new Waiter(Math.max(1, Math.min(estimatedTokens, limit.getTpm())), lane);
+            synchronized (this) {
+                if (queued >= properties.getMaxQueue()) {
+                    rejected.incrementAndGet();
+                    return CompletableFuture.failedFuture(new RateLimitRejectedException("AI请求排队已满：" + model));
+                }
+                queues.get(lane).addLast(waiter);
+                queued++;
+            }
+            waiter.future.orTimeout(properties.getQueueTimeoutSeconds(), TimeUnit.SECONDS)
+                    .whenComplete((permit, error) -> {
+                        if (error != null) {
+                            onWaiterTimeout(waiter, error instanceof CancellationException);
+                        }
+                    });
+            dispatch();
+            CompletableFuture<Permit> result = waiter.future.handle((permit, error) -> {
+                if (error != null) {
+                    throw new CompletionException(new RateLimitRejectedException("AI请求排队超时：" + model));
+                }
+                return permit;
+            });
+            // 调用方取消（如整次调用的期限已到）时撤回排队，不再等待许可
+            result.whenComplete((permit, error) -> {
+                if (result.isCancelled()) {
+                    waiter.future.cancel(false);
+                }
+            });
+            return result;
+        }
+
+        private void onWaiterTimeout(Waiter waiter, boolean cancelled) {
+            synchronized (this) {
+                if (queues.get(waiter.lane).remove(waiter)) {
+                    queued--;
+                }
+            }
+            if (cancelled) {
+                return;
+            }
+            rejected.incrementAndGet();
+            log.warn("模型 {} 出站限流排队超时，当前并发上限 {}", model, (int) concurrencyLimit);
+        }
+
+        /**
+         * 按通道优先级尽可能多地发放许可；令牌不足时安排一次定时重试
+         */
+        private void dispatch() {
+            List<Waiter> ready = new ArrayList<>();
+            synchronized (this) {
+                refill();
+                Waiter head;
+                while ((head = nextWaiter()) != null) {
+                    if (requestTokens < 1 || tokenTokens < head.tokens) {
+                        scheduleRefill(head.tokens);
+                        break;
+                    }
+                    requestTokens -= 1;
+                    tokenTokens -= head.tokens;
+                    inFlight++;
+                    laneInFlight[head.lane.ordinal()]++;
+                    queues.get(head.lane).pollFirst();
+                    queued--;
+                    ready.add(head);
+                }
+            }
+            for (Waiter waiter : ready) {
+                granted.incrementAndGet();
+                laneGranted.get(waiter.lane).incrementAndGet();
+                if (!waiter.future.complete(new ModelPermit(waiter.lane))) {
+                    // 发放前一刻已超时，归还并发名额
+                    release(waiter.lane, -1, 0, true);
+                }
+            }
+        }
+
+        /**
+         * 选出下一个可发放许可的队首：总并发已满时返回 null；已用满份额的通道跳过；
+         * 有队首等待超过 max-wait-ms 的通道时优先（防饿死），否则取优先级最高的通道
+         */
+        private Waiter nextWaiter() {
+            if (inFlight >= (int) concurrencyLimit) {
+                return null;
+            }
+            long now = System.nanoTime();
+            Waiter candidate = null;
+            for (AiLane lane : AiLane.values()) {
+                Waiter head = peekLive(lane);
+                if (head == null || !hasShare(lane)) {
+                    continue;
+                }
+                if (candidate == null) {
+                    candidate = head;
+                }
+                long maxWaitMs = properties.forLane(lane).getMaxWaitMs();
+                if (maxWaitMs > 0 && now - head.enqueuedAt >= TimeUnit.MILLISECONDS.toNanos(maxWaitMs)) {
+                    if (head != candidate) {
+                        promoted.incrementAndGet();
+                    }
+                    return head;
+                }
+            }
+            return candidate;
+        }
+
+        /**
+         * 通道队首（跳过已超时的等待者）
+         */
+        private Waiter peekLive(AiLane lane) {
+            Deque<Waiter> queue = queues.get(lane);
+            while (!queue.isEmpty() && queue.peekFirst().future.isDone()) {
+                queue.pollFirst();
+                queued--;
+            }
+            return queue.peekFirst();
+        }
+
+        private boolean hasShare(AiLane lane) {
+            int share = Math.max(1, (int) (concurrencyLimit * properties.forLane(lane).getMaxShare()));
+            return laneInFlight[lane.ordinal()] < share;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            double elapsedMinutes = (now - lastRefill) / 60_000_000_000.0;
+            lastRefill = now;
+            requestTokens = Math.min(limit.getRpm(), requestTokens + elapsedMinutes * limit.getRpm());
+            tokenTokens = Math.min(limit.getTpm(), tokenTokens + elapsedMinutes * limit.getTpm());
+        }
+
+        private void scheduleRefill(long neededTokens) {
+            if (refillScheduled) {
+                return;
+            }
+            double waitForRequest = requestTokens >= 1 ? 0 : (1 - requestTokens) / limit.getRpm();
+            double waitForTokens = tokenTokens >= neededTokens ? 0 : (neededTokens - tokenTokens) / limit.getTpm();
+            long delayMs = Math.max(10, (long) Math.ceil(Math.max(waitForRequest, waitForTokens) * 60_000));
+            refillScheduled = true;
+            scheduler.schedule(() -> {
+                synchronized (this) {
+                    refillScheduled = false;
+                }
+                dispatch();
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void release(AiLane lane, int statusCode, long latencyMs, boolean neutral) {
+            synchronized (this) {
+                inFlight--;
+                laneInFlight[lane.ordinal()]--;
+                if (!neutral) {
+                    boolean congested = statusCode == 429 || statusCode == 0 || latencyMs > limit.getLatencyThresholdMs();
+                    if (congested) {
+                        throttled.incrementAndGet();
+                        concurrencyLimit = Math.max(limit.getMinConcurrency(), concurrencyLimit * limit.getBackoffRatio());
+                        log.warn("模型 {} 出现拥塞信号（状态码 {}，耗时 {} 毫秒），并发上限降至 {}",
+                                model, statusCode, latencyMs, (int) concurrencyLimit);
+                    } else if (statusCode >= 200 && statusCode < 300) {
+                        // 加性增长：每个并发窗口完整成功一轮约 +1
+                        concurrencyLimit = Math.min(limit.getMaxConcurrency(), concurrencyLimit + 1.0 / concurrencyLimit);
+                    }
+                }
+            }
+            dispatch();
+        }
+
+        synchronized Map<String, Object> stats() {
+            refill();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("concurrencyLimit", (int) concurrencyLimit);
+            stats.put("inFlight", inFlight);
+            stats.put("queued", queued);
+            stats.put("availableRequests", (long) requestTokens);
+            stats.put("availableTokens", (long) tokenTokens);
+            stats.put("granted", granted.get());
+            stats.put("throttled", throttled.get());
+            stats.put("rejected", rejected.get());
+            stats.put("promoted", promoted.get());
+            Map<String, Object> lanes = new LinkedHashMap<>();
+            for (AiLane lane : AiLane.values()) {
+                Map<String, Object> laneStats = new LinkedHashMap<>();
+                laneStats.put("inFlight", laneInFlight[lane.ordinal()]);
+                laneStats.put("queued", queues.get(lane).size());
+                laneStats.put("granted", laneGranted.get(lane).get());
+                lanes.put(lane.name().toLowerCase(), laneStats);
+            }
+            stats.put("lanes", lanes);
+            return stats;
+        }
+
+        private final class ModelPermit implements Permit {
+            private final AiLane lane;
+            private boolean released;
+
+            ModelPermit(AiLane lane) {
+                this.lane = lane;
+            }
+
+            @Override
+            public void release(int statusCode, long latencyMs) {
+                synchronized (this) {
+                    if (released) {
+                        return;
+                    }
+                    released = true;
+                }
+                ModelLimiter.this.release(lane, statusCode, latencyMs, statusCode < 0);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final long tokens;
+        private final AiLane lane;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+
+        Waiter(long tokens, AiLane lane) {
+            this.tokens = tokens;
+            this.lane = lane;
+        }
+    }
+}
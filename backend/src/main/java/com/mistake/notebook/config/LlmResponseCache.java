@@ -0,0 +1,314 @@
+package com.mistake.notebook.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 大模型响应缓存（内容寻址）。
+ * 以 (model, messages, temperature, max_tokens, response_format) 的规范化 JSON 做 SHA-256 作为 key，
+ * 内存 LRU 为一级、磁盘文件为二级（重启后仍有效），均受 TTL 约束，磁盘层按总大小淘汰最旧文件。
+ * 同一道题被不同学生反复上传时，直接返回已有的分类/答案，不再重复付出模型延迟与费用。
+ */
+@Component
+@Slf4j
+public class LlmResponseCache {
+
+    private static final String KEY_VERSION = "v1";
+    private static final List<String> KEY_FIELDS = List.of(
+            "model", "temperature", "max_tokens", "top_p", "response_format", "enable_thinking");
+
+    private final ObjectMapper canonicalMapper;
+    private final ObjectMapper objectMapper;
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.cache.memory-max-entries:2000}")
+    private int memoryMaxEntries;
+
+    @Value("${ai.cache.ttl-hours:168}")
+    private long ttlHours;
+
+    @Value("${ai.cache.disk-enabled:true}")
+    private boolean diskEnabled;
+
+    @Value("${ai.cache.disk-dir:./cache/llm}")
+    private String diskDir;
+
+    @Value("${ai.cache.disk-max-mb:256}")
+    private long diskMaxMb;
+
+    private TtlLruCache<String, String> memory;
+    private Path diskPath;
+
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    public LlmResponseCache(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.canonicalMapper = objectMapper.copy()
+                .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    }
+
+    @PostConstruct
+    public void init() {
+        memory = new TtlLruCache<>(memoryMaxEntries, ttlMillis());
+        if (!enabled || !diskEnabled) {
+            return;
+        }
+        try {
+            diskPath = Paths.get(diskDir);
+            Files.createDirectories(diskPath);
+            long total = 0;
+            int expired = 0;
+            try (Stream<Path> files = Files.list(diskPath)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (isExpiredFile(file)) {
+                        Files.deleteIfExists(file);
+                        expired++;
+                    } else {
+                        total += Files.size(file);
+                    }
+                }
+            }
+            diskBytes.set(total);
+            log.info("LLM响应磁盘缓存就绪：{}，占用 {} KB，清理过期 {} 个", diskPath.toAbsolutePath(), total / 1024, expired);
+        } catch (IOException e) {
+            log.warn("LLM响应磁盘缓存初始化失败，仅使用内存缓存：{}", e.getMessage());
+            diskPath = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 计算请求的规范化 key：只取影响输出的字段，消息内容折叠空白，Map 按键排序后序列化
+     */
+    public String key(Map<String, Object> requestData) {
+        Map<String, Object> canonical = new TreeMap<>();
+        for (String field : KEY_FIELDS) {
+            Object value = requestData.get(field);
+            if (value != null) {
+                canonical.put(field, value);
+            }
+        }
+
+        List<Map<String, String>> messages = new ArrayList<>();
+        Object rawMessages = requestData.get("messages");
+        if (rawMessages instanceof List<?> list) {
+            for (Object item : list) {
+                if (item instanceof Map<?, ?> m) {
+                    Map<String, String> normalized = new TreeMap<>();
+                    normalized.put("role", String.valueOf(m.get("role")));
+                    normalized.put("content", normalizeText(String.valueOf(m.get("content"))));
+                    messages.add(normalized);
+                }
+            }
+        }
+        canonical.put("messages", messages);
+
+        try {
+            return sha256(KEY_VERSION + ":" + canonicalMapper.writeValueAsString(canonical));
+        } catch (IOException e) {
+            throw new IllegalStateException("无法序列化缓存key", e);
+        }
+    }
+
+    /**
+     * 查询缓存：内存命中直接返回；磁盘命中回填内存
+     */
+    public Optional<String> get(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String body = memory.get(key);
+        if (body != null) {
+            memoryHits.incrementAndGet();
+            return Optional.of(body);
+        }
+
+        DiskEntry diskEntry = readDisk(key);
+        if (diskEntry != null) {
+            memory.put(key, diskEntry.body(), diskEntry.createdAt());
+            diskHits.incrementAndGet();
+            return Optional.of(diskEntry.body());
+        }
+
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * 写入缓存（只应写入成功且内容完整的响应）
+     */
+    public void put(String key, String body) {
+        if (!enabled || body == null || body.isBlank()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        memory.put(key, body, now);
+        writes.incrementAndGet();
+        writeDisk(key, body, now);
+    }
+
+    public Map<String, Object> stats() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("memoryEntries", memory.size());
+        stats.put("memoryEvictions", memory.getEvictions());
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hits / total);
+        stats.put("writes", writes.get());
+        stats.put("diskBytes", diskBytes.get());
+        stats.put("diskEvictions", diskEvictions.get());
+        return stats;
+    }
+
+    private DiskEntry readDisk(String key) {
+        if (diskPath == null) {
+            return null;
+        }
+        Path file = diskPath.resolve(key + ".json");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            JsonNode node = objectMapper.readTree(file.toFile());
+            long createdAt = node.path("createdAt").asLong(0);
+            if (ttlMillis() > 0 && System.currentTimeMillis() - createdAt > ttlMillis()) {
+                deleteFile(file);
+                return null;
+            }
+            return new DiskEntry(node.path("body").asText(""), createdAt);
+        } catch (IOException e) {
+            log.warn("读取LLM磁盘缓存失败，删除损坏文件 {}：{}", file.getFileName(), e.getMessage());
+            deleteFile(file);
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, String body, long createdAt) {
+        if (diskPath == null) {
+            return;
+        }
+        Path file = diskPath.resolve(key + ".json");
+        Path tmp = diskPath.resolve(key + ".tmp");
+        try {
+            ObjectNode node = objectMapper.createObjectNode();
+            node.put("createdAt", createdAt);
+            node.put("body", body);
+            byte[] bytes = objectMapper.writeValueAsBytes(node);
+            long previous = Files.exists(file) ? Files.size(file) : 0;
+            Files.write(tmp, bytes);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskBytes.addAndGet(bytes.length - previous) > diskMaxMb * 1024 * 1024) {
+                evictDisk();
+            }
+        } catch (IOException e) {
+            log.warn("写入LLM磁盘缓存失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 磁盘超限时按修改时间从旧到新删除，直到降到上限的 80%。
+     * 用 ReentrantLock 而非 synchronized：淘汰过程有文件 I/O，虚拟线程在 synchronized 内阻塞会钉住载体线程；
+     * 已有线程在淘汰时其余线程直接跳过
+     */
+    private void evictDisk() {
+        long limit = diskMaxMb * 1024 * 1024;
+        if (diskBytes.get() <= limit || !evictLock.tryLock()) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(diskPath)) {
+            List<Path> ordered = files
+                    .filter(f -> f.getFileName().toString().endsWith(".json"))
+                    .sorted(Comparator.comparingLong(this::lastModified))
+                    .toList();
+            long target = limit * 8 / 10;
+            for (Path file : ordered) {
+                if (diskBytes.get() <= target) {
+                    break;
+                }
+                deleteFile(file);
+                diskEvictions.incrementAndGet();
+            }
+        } catch (IOException e) {
+            log.warn("LLM磁盘缓存淘汰失败：{}", e.getMessage());
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            long size = Files.size(file);
+            if (Files.deleteIfExists(file)) {
+                diskBytes.addAndGet(-size);
+            }
+        } catch (IOException ignored) {
+            // 文件已被其它线程删除
+        }
+    }
+
+    private boolean isExpiredFile(Path file) {
+        return ttlMillis() > 0 && System.currentTimeMillis() - lastModified(file) > ttlMillis();
+    }
+
+    private long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long ttlMillis() {
+        return TimeUnit.HOURS.toMillis(ttlHours);
+    }
+
+    /**
+     * 题目文本规范化：去首尾空白、折叠连续空白，避免排版差异导致缓存失效
+     */
+    private String normalizeText(String text) {
+        return text == null ? "" : text.trim().replaceAll("\\s+", " ");
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record DiskEntry(String body, long createdAt) {}
+}
@@ -0,0 +1,138 @@
+package com.mistake.notebook.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import okhttp3.ResponseBody;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 大模型响应流式解码器（基于 Jackson token 流）。
+ * 直接从响应流中取出 choices[0].message（或流式 delta）的 content / reasoning_content / finish_reason，
+ * 不缓冲整个响应体、不构建 JsonNode 树；content 中内嵌的 JSON 直接绑定为类型化 record。
+ */
+@Component
+public class LlmResponseDecoder {
+
+    private final JsonFactory jsonFactory;
+    private final ObjectMapper objectMapper;
+    private final ConcurrentHashMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    public LlmResponseDecoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * 从响应体流中解码（读到流末尾，保证连接可被连接池复用）
+     */
+    public ChatCompletion decode(ResponseBody body) throws IOException {
+        if (body == null) {
+            return ChatCompletion.EMPTY;
+        }
+        try (InputStream in = body.byteStream(); JsonParser parser = jsonFactory.createParser(in)) {
+            return decode(parser);
+        }
+    }
+
+    /**
+     * 解码已在内存中的响应（缓存命中、流式 SSE 的单个 data 块）
+     */
+    public ChatCompletion decode(String body) throws IOException {
+        if (body == null || body.isBlank()) {
+            return ChatCompletion.EMPTY;
+        }
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            return decode(parser);
+        }
+    }
+
+    /**
+     * 把模型输出的 JSON 文本绑定为类型化对象；单值可自动包装为数组，未知字段忽略
+     */
+    public <T> T readPayload(String content, Class<T> type) throws IOException {
+        ObjectReader reader = readers.computeIfAbsent(type, t -> objectMapper.readerFor(t)
+                .with(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES));
+        return reader.readValue(content);
+    }
+
+    private ChatCompletion decode(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return ChatCompletion.EMPTY;
+        }
+        String content = null;
+        String reasoning = null;
+        String finishReason = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (!"choices".equals(field) || token != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+
+            // 只取第一个 choice，其余跳过
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String choiceField = parser.currentName();
+                    JsonToken valueToken = parser.nextToken();
+                    if (("message".equals(choiceField) || "delta".equals(choiceField))
+                            && valueToken == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String messageField = parser.currentName();
+                            JsonToken messageToken = parser.nextToken();
+                            if ("content".equals(messageField)) {
+                                content = textOrNull(parser, messageToken);
+                            } else if ("reasoning_content".equals(messageField)) {
+                                reasoning = textOrNull(parser, messageToken);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    } else if ("finish_reason".equals(choiceField)) {
+                        finishReason = textOrNull(parser, valueToken);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return new ChatCompletion(content, reasoning, finishReason);
+    }
+
+    private static String textOrNull(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    /**
+     * 第一个 choice 的解码结果
+     */
+    public record ChatCompletion(String content, String reasoningContent, String finishReason) {
+
+        static final ChatCompletion EMPTY = new ChatCompletion(null, null, null);
+
+        public boolean hasContent() {
+            return content != null && !content.isBlank();
+        }
+
+        public boolean isTruncated() {
+            return "length".equals(finishReason);
+        }
+    }
+}
@@ -2,50 +2,350 @@ package com.mistake.notebook.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
- * 基于 OkHttp 的 OpenAI 兼容客户端
+ * 基于 OkHttp 的 OpenAI 兼容客户端。
+ * 所有 AI 调用（文本 + 视觉）共享 aiHttpClient 的连接池，默认走异步 enqueue，
+ * 不再为每次调用占用一个阻塞线程。
  */
 @Component
 @RequiredArgsConstructor
+@Slf4j
 public class SimpleOpenAIClient {
 
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
 
     private final AIConfig aiConfig;
     private final ObjectMapper objectMapper;
-
-    private final OkHttpClient httpClient = new OkHttpClient.Builder()
-            .connectTimeout(60, TimeUnit.SECONDS)
-            .readTimeout(180, TimeUnit.SECONDS)
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .build();
+    private final OkHttpClient httpClient;
+    private final LlmResponseCache responseCache;
+    private final LlmRateLimiter rateLimiter;
+    private final LlmResponseDecoder responseDecoder;
+    private final SingleFlight<String, SharedResponse> inflight = new SingleFlight<>();
 
     /**
-     * 调用兼容模式 chat completions
+     * 调用兼容模式 chat completions（同步，兼容旧调用方）
      */
     public Response createChatCompletion(Map<String, Object> requestData) throws IOException {
-        String requestJson = objectMapper.writeValueAsString(requestData);
+        return await(createChatCompletionAsync(requestData));
+    }
+
+    /**
+     * 异步调用兼容模式 chat completions，调用方负责关闭返回的 Response
+     */
+    public CompletableFuture<Response> createChatCompletionAsync(Map<String, Object> requestData) {
+        return createChatCompletionAsync(requestData, false);
+    }
+
+    /**
+     * 异步调用 chat completions；cacheable=true 时先查内容寻址缓存，未命中再请求模型并回写，
+     * 同一时刻相同 key 的请求合并为一次上游调用（全班同时上传同一张试卷时不会打出 N 个相同请求）。
+     * 只适合输出可复用的确定性任务（题目分类、答案解析），对话类请求不要开启。
+     */
+    public CompletableFuture<Response> createChatCompletionAsync(Map<String, Object> requestData, boolean cacheable) {
+        return createChatCompletionAsync(requestData, cacheable, null);
+    }
+
+    /**
+     * 带整次调用期限的 chat completions：期限从申请限流许可开始计算，到期后取消排队或已发出的请求，
+     * 并发名额立即归还（调用方不要再在派生的 future 上 orTimeout，那样只会放弃等待而不会取消请求）
+     */
+    public CompletableFuture<Response> createChatCompletionAsync(Map<String, Object> requestData, boolean cacheable,
+                                                                 Duration timeout) {
+        String requestJson;
+        try {
+            requestJson = objectMapper.writeValueAsString(requestData);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
         RequestBody body = RequestBody.create(requestJson, JSON);
 
         Request request = new Request.Builder()
-                .url(buildUrl("chat/completions"))
+                .url(buildUrl(aiConfig.getBaseUrl(), "chat/completions"))
                 .post(body)
                 .addHeader("Authorization", "Bearer " + aiConfig.getApiKey())
                 .addHeader("Content-Type", "application/json")
                 .build();
 
-        return httpClient.newCall(request).execute();
+        String model = String.valueOf(requestData.get("model"));
+        long estimatedTokens = estimateTokens(requestData);
+        if (!cacheable) {
+            return sendLimitedAsync(model, estimatedTokens, request, null, AiLane.current(), timeout);
+        }
+
+        String cacheKey = responseCache.key(requestData);
+        Optional<String> cached = responseCache.get(cacheKey);
+        if (cached.isPresent()) {
+            log.debug("LLM缓存命中：{}", cacheKey);
+            return CompletableFuture.completedFuture(
+                    new SharedResponse(200, "OK", Protocol.HTTP_1_1, cached.get()).toResponse(request, "HIT"));
+        }
+
+        AiLane lane = AiLane.current();
+        return inflight.execute(cacheKey, () -> sendLimitedAsync(model, estimatedTokens, request, null, lane, timeout)
+                        .thenApply(response -> readShared(cacheKey, response)))
+                .thenApply(shared -> shared.toResponse(request, "MISS"));
+    }
+
+    /**
+     * 经出站限流器发送：先按模型申请许可（RPM/TPM/自适应并发），拿到后再发请求，
+     * 响应头到达或失败时归还许可，并把状态码与耗时反馈给 AIMD 并发控制。
+     * 返回的 future 被取消时会取消底层 Call（对冲请求的落败方据此释放连接）。
+     * 按调用线程当前的优先级通道排队（见 AiLane）。
+     */
+    public CompletableFuture<Response> sendLimitedAsync(String model, long estimatedTokens,
+                                                        Request request, Duration readTimeout) {
+        return sendLimitedAsync(model, estimatedTokens, request, readTimeout, AiLane.current());
+    }
+
+    /**
+     * 按指定优先级通道经出站限流器发送（重试、对冲等在其它线程发起的请求需显式传入通道）
+     */
+    public CompletableFuture<Response> sendLimitedAsync(String model, long estimatedTokens,
+                                                        Request request, Duration readTimeout, AiLane lane) {
+        return sendLimitedAsync(model, estimatedTokens, request, readTimeout, lane, null);
+    }
+
+    /**
+     * timeout 为整次调用（排队等待许可 + 请求）的期限：到期后返回的 future 以 TimeoutException 结束，
+     * 同时撤回排队中的许可申请或取消已发出的 Call，许可立即归还，被取消的请求不计入 AIMD
+     */
+    public CompletableFuture<Response> sendLimitedAsync(String model, long estimatedTokens, Request request,
+                                                        Duration readTimeout, AiLane lane, Duration timeout) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        if (timeout != null) {
+            result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        CompletableFuture<LlmRateLimiter.Permit> acquiring = rateLimiter.acquire(model, estimatedTokens, lane);
+        result.whenComplete((response, error) -> {
+            if (error != null) {
+                acquiring.cancel(false);
+            }
+        });
+        acquiring.whenComplete((permit, acquireError) -> {
+            if (acquireError != null) {
+                result.completeExceptionally(unwrap(acquireError));
+                return;
+            }
+            if (result.isDone()) {
+                permit.release(-1, 0);
+                return;
+            }
+            long start = System.currentTimeMillis();
+            CompletableFuture<Response> call;
+            try {
+                call = sendAsync(request, readTimeout);
+            } catch (RuntimeException e) {
+                permit.release(-1, 0);
+                result.completeExceptionally(e);
+                return;
+            }
+            call.whenComplete((response, error) -> {
+                permit.release(statusOf(response, error), System.currentTimeMillis() - start);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else if (!result.complete(response)) {
+                    response.close();
+                }
+            });
+            result.whenComplete((response, error) -> {
+                if (error != null) {
+                    call.cancel(true);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * 预估一次请求消耗的 token：输入按约 2 字符 / token 估算，加上 max_tokens 上限
+     */
+    private long estimateTokens(Map<String, Object> requestData) {
+        long chars = 0;
+        if (requestData.get("messages") instanceof List<?> messages) {
+            for (Object message : messages) {
+                if (message instanceof Map<?, ?> m && m.get("content") != null) {
+                    chars += String.valueOf(m.get("content")).length();
+                }
+            }
+        }
+        long maxTokens = requestData.get("max_tokens") instanceof Number n ? n.longValue() : 1000;
+        return chars / 2 + maxTokens;
     }
 
-    private String buildUrl(String path) {
-        String base = aiConfig.getBaseUrl();
+    /**
+     * 把调用结果映射成限流器的反馈信号：读超时记为 0（拥塞），其它网络异常记为 -1（不计入 AIMD）
+     */
+    private static int statusOf(Response response, Throwable error) {
+        if (response != null) {
+            return response.code();
+        }
+        return unwrap(error) instanceof InterruptedIOException ? 0 : -1;
+    }
+
+    /**
+     * 读取上游响应体供合并的调用方共享；成功且内容完整时回写缓存
+     */
+    private SharedResponse readShared(String cacheKey, Response response) {
+        try (response) {
+            String responseBody = response.body() != null ? response.body().string() : "";
+            if (response.isSuccessful() && hasContent(responseBody)) {
+                responseCache.put(cacheKey, responseBody);
+            }
+            return new SharedResponse(response.code(), response.message(), response.protocol(), responseBody);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Map<String, Object> singleFlightStats() {
+        return inflight.stats();
+    }
+
+    /**
+     * 只缓存 choices[0].message.content 非空且未被截断的响应
+     */
+    private boolean hasContent(String responseBody) {
+        try {
+            LlmResponseDecoder.ChatCompletion completion = responseDecoder.decode(responseBody);
+            return completion.hasContent() && !completion.isTruncated();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 已读取完毕、可被多个调用方复用的响应；每个调用方各自生成独立的 Response
+     */
+    private record SharedResponse(int code, String message, Protocol protocol, String body) {
+
+        Response toResponse(Request request, String cacheStatus) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(protocol)
+                    .code(code)
+                    .message(message)
+                    .header("X-Cache", cacheStatus)
+                    .body(ResponseBody.create(body, JSON))
+                    .build();
+        }
+    }
+
+    /**
+     * 通过共享连接池异步发送任意请求（视觉推理等需要自定义请求体/超时的场景）。
+     * readTimeout 为空时使用全局默认；派生出的 client 与全局共享连接池和调度器。
+     * future 被取消或超时后会同步取消底层 Call。
+     */
+    public CompletableFuture<Response> sendAsync(Request request, Duration readTimeout) {
+        OkHttpClient client = readTimeout == null
+                ? httpClient
+                : httpClient.newBuilder().readTimeout(readTimeout).build();
+        Call call = client.newCall(request);
+
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        future.whenComplete((response, error) -> {
+            if (error != null) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call c, Response response) {
+                if (!future.complete(response)) {
+                    response.close();
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 启动后预热连接：提前完成 DNS + TLS 握手，首个用户请求不再付握手成本
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        warmUp(aiConfig.getBaseUrl(), aiConfig.getApiKey());
+    }
+
+    /**
+     * 预热指定 Base URL 所在主机的连接（HTTP/2 下一条连接即可多路复用）
+     */
+    public void warmUp(String baseUrl, String apiKey) {
+        if (apiKey == null || apiKey.isBlank() || "not-configured".equals(apiKey)) {
+            return;
+        }
+        Request request = new Request.Builder()
+                .url(buildUrl(baseUrl, "models"))
+                .get()
+                .addHeader("Authorization", "Bearer " + apiKey)
+                .build();
+        long start = System.currentTimeMillis();
+        sendAsync(request, Duration.ofSeconds(15)).whenComplete((response, error) -> {
+            if (response != null) {
+                log.info("AI连接预热完成：{}，状态码 {}，协议 {}，耗时 {} 毫秒",
+                        request.url().host(), response.code(), response.protocol(),
+                        System.currentTimeMillis() - start);
+                response.close();
+            } else {
+                log.warn("AI连接预热失败：{}，{}", request.url().host(), unwrap(error).getMessage());
+            }
+        });
+    }
+
+    /**
+     * 阻塞等待异步响应，把 CompletionException 还原成 IOException
+     */
+    public static Response await(CompletableFuture<Response> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IOException("AI请求被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 剥离 CompletableFuture 包装的异常
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable current = error;
+        while ((current instanceof CompletionException || current instanceof ExecutionException)
+                && current.getCause() != null) {
+            current = current.getCause();
+        }
+        return current;
+    }
+
+    public static String buildUrl(String base, String path) {
         if (base == null || base.isEmpty()) {
             base = "https://dashscope.aliyuncs.com/compatible-mode/v1/";
         }
@@ -61,4 +361,3 @@ public class SimpleOpenAIClient {
         return base + path;
     }
 }
-
@@ -0,0 +1,56 @@
+package com.mistake.notebook.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 同 key 请求合并（single-flight）：同一时刻相同 key 的请求只发起一次上游调用，
+ * 其余调用方等待并共享同一结果；上游完成后立即移除，之后的请求会重新发起（结果复用交给缓存层）。
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inflight = new ConcurrentHashMap<>();
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * 执行或加入同 key 的进行中调用。每个调用方拿到独立的 future 副本，
+     * 单个调用方取消/超时不会影响共享的上游调用。
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> shared = new CompletableFuture<>();
+        CompletableFuture<V> existing = inflight.putIfAbsent(key, shared);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing.copy();
+        }
+
+        leaders.incrementAndGet();
+        try {
+            call.get().whenComplete((value, error) -> {
+                inflight.remove(key, shared);
+                if (error != null) {
+                    shared.completeExceptionally(error);
+                } else {
+                    shared.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inflight.remove(key, shared);
+            shared.completeExceptionally(e);
+        }
+        return shared.copy();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inflight", inflight.size());
+        stats.put("upstreamCalls", leaders.get());
+        stats.put("coalesced", coalesced.get());
+        return stats;
+    }
+}
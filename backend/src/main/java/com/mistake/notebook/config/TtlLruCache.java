@@ -0,0 +1,94 @@
+package com.mistake.notebook.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * 带 TTL 的内存 LRU 缓存（线程安全），超出容量时淘汰最久未访问的条目
+ */
+public class TtlLruCache<K, V> {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<K, CacheEntry<V>> map;
+    private long evictions;
+
+    public TtlLruCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > TtlLruCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(entry)) {
+            map.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    public synchronized void put(K key, V value) {
+        put(key, value, System.currentTimeMillis());
+    }
+
+    /**
+     * 以指定写入时间放入（磁盘层回填内存时沿用原始时间，TTL 不会被刷新）
+     */
+    public synchronized void put(K key, V value, long createdAt) {
+        map.put(key, new CacheEntry<>(value, createdAt));
+    }
+
+    /**
+     * 线性扫描所有未过期条目，返回距离最小的值（用于近似匹配，条目数应控制在几千以内）。
+     * distance 返回负数表示该条目不是候选；扫描不改变条目的访问顺序
+     */
+    public synchronized V findClosest(ToLongBiFunction<K, V> distance) {
+        long now = System.currentTimeMillis();
+        V best = null;
+        long bestDistance = Long.MAX_VALUE;
+        for (Map.Entry<K, CacheEntry<V>> e : map.entrySet()) {
+            CacheEntry<V> entry = e.getValue();
+            if (ttlMillis > 0 && now - entry.createdAt() > ttlMillis) {
+                continue;
+            }
+            long d = distance.applyAsLong(e.getKey(), entry.value());
+            if (d >= 0 && d < bestDistance) {
+                best = entry.value();
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    public synchronized void remove(K key) {
+        map.remove(key);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private boolean isExpired(CacheEntry<V> entry) {
+        return ttlMillis > 0 && System.currentTimeMillis() - entry.createdAt() > ttlMillis;
+    }
+
+    private record CacheEntry<V>(V value, long createdAt) {}
+}
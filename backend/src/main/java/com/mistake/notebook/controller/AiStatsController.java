@@ -0,0 +1,67 @@
+package com.mistake.notebook.controller;
+
+import com.mistake.notebook.config.LlmRateLimiter;
+import com.mistake.notebook.config.LlmResponseCache;
+import com.mistake.notebook.config.SimpleOpenAIClient;
+import com.mistake.notebook.dto.ApiResponse;
+import com.mistake.notebook.service.AIClassificationService;
+import com.mistake.notebook.service.AiAdmissionService;
+import com.mistake.notebook.service.AiJobWorker;
+import com.mistake.notebook.service.AiRecoverySweeper;
+import com.mistake.notebook.service.ImagePreprocessor;
+import com.mistake.notebook.service.QuestionEventHub;
+import com.mistake.notebook.service.VisionRequestExecutor;
+import com.mistake.notebook.service.VisionResultCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * AI 运行指标（缓存命中率等），用于观察 AI 调用链路的效果
+ */
+@RestController
+@RequestMapping("/ai")
+@RequiredArgsConstructor
+@CrossOrigin(origins = {"http://localhost:3060", "http://127.0.0.1:3060", "http://localhost:3000", "http://127.0.0.1:3000", "http://103.146.124.206:3060", "http://103.146.124.206:3000", "*"})
+public class AiStatsController {
+
+    private final LlmResponseCache llmResponseCache;
+    private final SimpleOpenAIClient openAIClient;
+    private final LlmRateLimiter llmRateLimiter;
+    private final AIClassificationService aiClassificationService;
+    private final VisionRequestExecutor visionRequestExecutor;
+    private final ImagePreprocessor imagePreprocessor;
+    private final VisionResultCache visionResultCache;
+    private final AiJobWorker aiJobWorker;
+    private final AiRecoverySweeper aiRecoverySweeper;
+    private final AiAdmissionService aiAdmissionService;
+    private final QuestionEventHub questionEventHub;
+
+    @GetMapping("/stats")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> stats() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("llmCache", llmResponseCache.stats());
+        data.put("visionCache", visionResultCache.stats());
+        data.put("singleFlight", openAIClient.singleFlightStats());
+        data.put("rateLimiter", llmRateLimiter.stats());
+        data.put("classificationBreaker", aiClassificationService.circuitBreakerStats());
+        data.put("visionRetry", visionRequestExecutor.stats());
+        data.put("imagePreprocess", imagePreprocessor.stats());
+        data.put("aiJobs", aiJobWorker.stats());
+        data.put("aiRecovery", aiRecoverySweeper.stats());
+        data.put("aiBacklog", aiAdmissionService.stats());
+        data.put("questionEvents", questionEventHub.stats());
+        return ResponseEntity.ok(ApiResponse.success(data));
+    }
+
+    /**
+     * AI 任务积压（排队 + 执行中、消化速度、预计消化时长），前端可据此提示排队时间
+     */
+    @GetMapping("/backlog")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> backlog() {
+        return ResponseEntity.ok(ApiResponse.success(aiAdmissionService.stats()));
+    }
+}
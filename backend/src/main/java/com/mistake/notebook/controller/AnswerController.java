@@ -6,12 +6,19 @@ import com.mistake.notebook.service.ChatMemoryService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * AI 答疑控制器（对齐小程序 answer 云函数）
@@ -23,6 +30,8 @@ import java.util.Map;
 @CrossOrigin(origins = {"http://localhost:3060", "http://127.0.0.1:3060", "http://localhost:3000", "http://127.0.0.1:3000", "http://103.146.124.206:3060", "http://103.146.124.206:3000", "*"})
 public class AnswerController {
 
+    private static final long STREAM_TIMEOUT_MS = 300_000L;
+
     private final AIAnswerService aiAnswerService;
     private final ChatMemoryService chatMemoryService;
 
@@ -55,6 +64,72 @@ public class AnswerController {
         }
     }
 
+    /**
+     * 流式 AI 答疑（SSE）：delta 事件逐段推送模型输出，done 事件携带完整回复，error 事件表示中途失败
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestBody Map<String, Object> request) {
+        @SuppressWarnings("unchecked")
+        List<Map<String, String>> messages = (List<Map<String, String>>) request.get("messages");
+        String questionContext = request.get("questionContext") != null
+                ? String.valueOf(request.get("questionContext"))
+                : "";
+        String clientId = request.get("clientId") != null
+                ? String.valueOf(request.get("clientId"))
+                : "";
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        String memoryBlock = chatMemoryService.buildMemoryBlock(clientId);
+
+        CompletableFuture<String> replyFuture = aiAnswerService.chatReplyStream(messages, questionContext, memoryBlock,
+                delta -> sendEvent(emitter, "delta", Map.of("content", delta)));
+        replyFuture.whenComplete((reply, error) -> {
+            if (error instanceof CancellationException) {
+                log.debug("客户端已断开或连接超时，已取消上游流式输出");
+                return;
+            }
+            if (error != null) {
+                log.warn("AI chat 流式输出中断：{}", error.getMessage());
+                try {
+                    emitter.send(SseEmitter.event().name("error")
+                            .data(Map.of("message", "网络好像不太顺畅，请稍后再问我一次。")));
+                } catch (Exception ignored) {
+                    // 客户端已断开
+                }
+                emitter.complete();
+                return;
+            }
+
+            // 把完整回复连同本轮提问交给记忆服务（不阻塞响应，不调用 LLM）
+            List<Map<String, String>> turn = new ArrayList<>(messages != null ? messages : List.of());
+            turn.add(Map.of("role", "assistant", "content", reply));
+            chatMemoryService.recordTurnAsync(clientId, turn, questionContext);
+
+            try {
+                sendEvent(emitter, "done", Map.of("reply", reply));
+                emitter.complete();
+            } catch (UncheckedIOException e) {
+                log.debug("客户端已断开，忽略 done 事件");
+            }
+        });
+        // 客户端断开、连接超时或写出失败时取消上游，不再为无人接收的回复占用模型并发
+        emitter.onCompletion(() -> replyFuture.cancel(true));
+        emitter.onTimeout(() -> {
+            replyFuture.cancel(true);
+            emitter.complete();
+        });
+        emitter.onError(e -> replyFuture.cancel(true));
+        return emitter;
+    }
+
+    private void sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * 获取记忆状态（用于个性化问候）
      */
@@ -1,16 +1,24 @@
 package com.mistake.notebook.controller;
 
+import com.mistake.notebook.config.AiLane;
 import com.mistake.notebook.dto.ApiResponse;
 import com.mistake.notebook.dto.CreateQuestionRequest;
+import com.mistake.notebook.dto.QuestionChangesDTO;
 import com.mistake.notebook.dto.QuestionDTO;
+import com.mistake.notebook.dto.QuestionSliceDTO;
+import com.mistake.notebook.service.AiAdmissionService;
+import com.mistake.notebook.service.QuestionChangeService;
+import com.mistake.notebook.service.QuestionEventHub;
 import com.mistake.notebook.service.QuestionService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -26,10 +34,12 @@ import java.util.Map;
 public class QuestionController {
 
     private final QuestionService questionService;
-    private final com.mistake.notebook.service.AsyncAiProcessingService asyncAiProcessingService;
+    private final AiAdmissionService aiAdmissionService;
+    private final QuestionEventHub questionEventHub;
+    private final QuestionChangeService questionChangeService;
 
     /**
-     * 查询正在/等待 AI 解析（或失败）的题目，用于前端"解析中"轮询
+     * 查询正在/等待 AI 解析（或失败）的题目，用于前端"解析中"页面的初始加载与断线重连后的同步
      */
     @GetMapping("/pending")
     public ResponseEntity<ApiResponse<List<QuestionDTO>>> getPendingQuestions() {
@@ -42,6 +52,39 @@ public class QuestionController {
         }
     }
 
+    /**
+     * 订阅题目 AI 状态变化（SSE）：ai-status 事件携带 questionId / aiStatus / aiError，
+     * 前端据此更新"解析中"列表，不再轮询 /pending
+     */
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribeEvents() {
+        SseEmitter emitter = questionEventHub.subscribe();
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * 增量同步：返回游标之后新建/修改的题目与已删除题目的ID，不传 since 时为首次全量同步。
+     * 前端保存返回的 nextCursor 作为下次的 since，hasMore 为 true 时继续拉取；
+     * 提交耗时超过 gap-wait-ms 的事务可能被漏掉，前端应定期做一次全量同步兜底
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<ApiResponse<QuestionChangesDTO>> getChanges(
+            @RequestParam(required = false) String since,
+            @RequestParam(required = false) Integer limit) {
+        try {
+            return ResponseEntity.ok(ApiResponse.success(questionChangeService.getChanges(since, limit)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            log.error("增量同步题目失败", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("同步失败：" + e.getMessage()));
+        }
+    }
+
     /**
      * 创建题目
      */
@@ -131,6 +174,36 @@ public class QuestionController {
         }
     }
 
+    /**
+     * 键集分页查询题目（mode=keyset）：按创建时间与ID定位，翻到多深都只读取一页，适合无限滚动。
+     * 首页不传 cursor，之后传上一页返回的 nextCursor；默认不统计总数，需要时传 withTotal=true
+     */
+    @GetMapping(value = "/page", params = "mode=keyset")
+    public ResponseEntity<ApiResponse<QuestionSliceDTO>> getQuestionsSlice(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "desc") String sortDir,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String difficulty,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
+        try {
+            if (size <= 0 || size > 100) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("分页参数不合法"));
+            }
+            if (!List.of("asc", "desc").contains(sortDir.toLowerCase())) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("排序方向只能是 asc 或 desc"));
+            }
+            QuestionSliceDTO slice = questionService.getQuestionSlice(cursor, size, sortDir, category, difficulty, withTotal);
+            return ResponseEntity.ok(ApiResponse.success(slice));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            log.error("键集分页查询题目失败", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("查询题目失败：" + e.getMessage()));
+        }
+    }
+
     /**
      * 根据ID列表查询题目（用于试卷生成）
      */
@@ -241,13 +314,16 @@ public class QuestionController {
     @PostMapping("/{id}/retry-ai")
     public ResponseEntity<ApiResponse<QuestionDTO>> retryAi(@PathVariable Long id) {
         try {
+            AiAdmissionService.Decision admission = aiAdmissionService.check(1, AiLane.USER_VISIBLE);
+            if (!admission.admitted()) {
+                return admission.toRejection();
+            }
             boolean ok = questionService.markAiPending(id);
             if (!ok) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                         .body(ApiResponse.error("题目不存在"));
             }
-            // 异步重新分类 + 生成解析，立即返回，前端通过轮询感知进度
-            asyncAiProcessingService.processQuestion(id);
+            // 已重新入队，后台重新分类 + 生成解析，立即返回；进度经 SSE ai-status 事件推送
             return questionService.getQuestionById(id)
                     .map(q -> ResponseEntity.ok(ApiResponse.success("已重新提交AI解析", q)))
                     .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND)
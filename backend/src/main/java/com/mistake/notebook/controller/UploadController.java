@@ -1,9 +1,13 @@
 package com.mistake.notebook.controller;
 
+import com.mistake.notebook.config.AiLane;
 import com.mistake.notebook.dto.ApiResponse;
 import com.mistake.notebook.dto.CreateQuestionRequest;
 import com.mistake.notebook.dto.QuestionDTO;
+import com.mistake.notebook.entity.UploadJob;
 import com.mistake.notebook.service.AIClassificationService;
+import com.mistake.notebook.service.AiAdmissionService;
+import com.mistake.notebook.service.UploadJobService;
 import com.mistake.notebook.service.VisionReasoningService;
 import com.mistake.notebook.service.QuestionService;
 import lombok.RequiredArgsConstructor;
@@ -26,6 +30,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 文件上传控制器
@@ -41,13 +46,14 @@ public class UploadController {
     private final AIClassificationService aiClassificationService;
     private final AIAnswerService aiAnswerService;
     private final QuestionService questionService;
-    private final com.mistake.notebook.service.AsyncAiProcessingService asyncAiProcessingService;
+    private final UploadJobService uploadJobService;
+    private final AiAdmissionService aiAdmissionService;
 
     @Value("${file.upload.path}")
     private String uploadPath;
 
     /**
-     * 上传图片并进行OCR识别和AI分类
+     * 上传图片并进行OCR识别和AI分类（同步，整个 AI 流程占用请求线程；推荐使用 /question/jobs）
      */
     @PostMapping("/question")
     public ResponseEntity<ApiResponse<QuestionDTO>> uploadQuestionImage(
@@ -117,6 +123,65 @@ public class UploadController {
         }
     }
 
+    /**
+     * 上传图片并创建后台任务：只落盘图片、建任务，立即返回任务ID（202），
+     * 视觉识别、AI 分类与解析在后台分阶段完成，前端通过 GET /upload/question/jobs/{jobId} 查询进度
+     */
+    @PostMapping("/question/jobs")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> submitQuestionJob(
+            @RequestParam("file") MultipartFile file) {
+        try {
+            log.info("接收到上传任务请求，文件名：{}，大小：{} bytes",
+                     file.getOriginalFilename(), file.getSize());
+
+            if (file.isEmpty()) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("文件为空"));
+            }
+            if (file.getSize() > 10 * 1024 * 1024) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("文件大小超过限制"));
+            }
+            if (file.getContentType() == null || !visionReasoningService.isImageFile(file.getContentType())) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("不支持的文件类型"));
+            }
+
+            AiAdmissionService.Decision admission = aiAdmissionService.check(1, AiLane.USER_VISIBLE);
+            if (!admission.admitted()) {
+                return admission.toRejection();
+            }
+
+            String imageUrl = saveFile(file);
+            if (imageUrl == null) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(ApiResponse.error("文件保存失败"));
+            }
+
+            UploadJob job = uploadJobService.createJob(imageUrl, file.getOriginalFilename(), file.getContentType());
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("jobId", job.getId());
+            result.put("imageUrl", imageUrl);
+            result.put("stage", job.getStage().name().toLowerCase());
+            result.put("queueEtaSeconds", admission.etaSeconds());
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(ApiResponse.success("任务已提交，排队识别中", result));
+        } catch (Exception e) {
+            log.error("提交上传任务失败", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("提交失败：" + e.getMessage()));
+        }
+    }
+
+    /**
+     * 查询上传任务进度（queued / recognizing / analyzing / completed / failed）
+     */
+    @GetMapping("/question/jobs/{jobId}")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getQuestionJob(@PathVariable Long jobId) {
+        return uploadJobService.getJobStatus(jobId)
+                .map(status -> ResponseEntity.ok(ApiResponse.success(status)))
+                .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(ApiResponse.error("任务不存在")));
+    }
+
     /**
      * 单独上传文件（不进行处理）
      */
@@ -143,32 +208,33 @@ public class UploadController {
     }
 
     /**
-     * 仅进行OCR识别（不保存题目）
+     * 仅进行OCR识别（不保存题目）。
+     * 返回 CompletableFuture，等待视觉模型期间释放 Tomcat 请求线程。
      */
     @PostMapping("/ocr")
-    public ResponseEntity<ApiResponse<Map<String, Object>>> performVisionRecognition(
+    public CompletableFuture<ResponseEntity<ApiResponse<Map<String, Object>>>> performVisionRecognition(
             @RequestParam("file") MultipartFile file) {
-        try {
-            VisionReasoningService.VisionResult visionResult = visionReasoningService.recognizeText(file);
-            
-            Map<String, Object> result = new HashMap<>();
-            result.put("success", visionResult.isSuccess());
-            result.put("text", visionResult.getContent());
-            result.put("confidence", visionResult.getConfidence());
-            result.put("reasoning", visionResult.getReasoningContent());
-            
-            if (!visionResult.isSuccess()) {
-                result.put("error", visionResult.getError());
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(ApiResponse.<Map<String, Object>>error("识别失败"));
-            }
-
-            return ResponseEntity.ok(ApiResponse.success("识别成功", result));
-        } catch (Exception e) {
-            log.error("视觉推理识别失败", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(ApiResponse.error("识别失败：" + e.getMessage()));
-        }
+        return visionReasoningService.recognizeTextAsync(file)
+                .thenApply(visionResult -> {
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("success", visionResult.isSuccess());
+                    result.put("text", visionResult.getContent());
+                    result.put("confidence", visionResult.getConfidence());
+                    result.put("reasoning", visionResult.getReasoningContent());
+
+                    if (!visionResult.isSuccess()) {
+                        result.put("error", visionResult.getError());
+                        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                                .body(ApiResponse.<Map<String, Object>>error("识别失败"));
+                    }
+
+                    return ResponseEntity.ok(ApiResponse.success("识别成功", result));
+                })
+                .exceptionally(e -> {
+                    log.error("视觉推理识别失败", e);
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(ApiResponse.error("识别失败：" + e.getMessage()));
+                });
     }
 
     /**
@@ -210,48 +276,49 @@ public class UploadController {
     }
 
     /**
-     * 题目分割识别（识别并分割多个题目）
+     * 题目分割识别（识别并分割多个题目）。
+     * 文件保存在请求线程完成，视觉推理异步进行，等待期间释放 Tomcat 请求线程。
      */
     @PostMapping("/question-segment")
-    public ResponseEntity<ApiResponse<Map<String, Object>>> performQuestionSegmentation(
+    public CompletableFuture<ResponseEntity<ApiResponse<Map<String, Object>>>> performQuestionSegmentation(
             @RequestParam("file") MultipartFile file) {
-        try {
-            log.info("接收到题目分割识别请求，文件名：{}，大小：{} bytes", 
-                     file.getOriginalFilename(), file.getSize());
-
-            // 1. 保存文件
-            String imageUrl = saveFile(file);
-            if (imageUrl == null) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(ApiResponse.error("文件保存失败"));
-            }
+        log.info("接收到题目分割识别请求，文件名：{}，大小：{} bytes", 
+                 file.getOriginalFilename(), file.getSize());
 
-            // 2. 视觉推理题目分割
-            VisionReasoningService.VisionQuestionResult segmentResult = visionReasoningService.recognizeAndSegmentQuestions(file);
-            if (!segmentResult.isSuccess()) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(ApiResponse.error("题目分割识别失败：" + segmentResult.getError()));
-            }
-
-            List<Map<String, Object>> convertedQuestions = convertVisionQuestions(segmentResult.getQuestions());
-
-            // 3. 构建返回结果
-            Map<String, Object> result = new HashMap<>();
-            result.put("success", true);
-            result.put("imageUrl", imageUrl);
-            result.put("questionsCount", convertedQuestions.size());
-            result.put("overallConfidence", segmentResult.getOverallConfidence());
-            result.put("questions", convertedQuestions);
-            result.put("reasoning", segmentResult.getReasoningContent());
-
-            log.info("视觉推理题目分割成功，识别到{}道题目", segmentResult.getQuestions().size());
-            return ResponseEntity.ok(ApiResponse.success("题目分割识别成功", result));
-
-        } catch (Exception e) {
-            log.error("题目分割识别失败", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(ApiResponse.error("识别失败：" + e.getMessage()));
+        // 1. 保存文件
+        String imageUrl = saveFile(file);
+        if (imageUrl == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error("文件保存失败")));
         }
+
+        // 2. 视觉推理题目分割
+        return visionReasoningService.recognizeAndSegmentQuestionsAsync(file)
+                .thenApply(segmentResult -> {
+                    if (!segmentResult.isSuccess()) {
+                        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                                .body(ApiResponse.<Map<String, Object>>error("题目分割识别失败：" + segmentResult.getError()));
+                    }
+
+                    List<Map<String, Object>> convertedQuestions = convertVisionQuestions(segmentResult.getQuestions());
+
+                    // 3. 构建返回结果
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("success", true);
+                    result.put("imageUrl", imageUrl);
+                    result.put("questionsCount", convertedQuestions.size());
+                    result.put("overallConfidence", segmentResult.getOverallConfidence());
+                    result.put("questions", convertedQuestions);
+                    result.put("reasoning", segmentResult.getReasoningContent());
+
+                    log.info("视觉推理题目分割成功，识别到{}道题目", segmentResult.getQuestions().size());
+                    return ResponseEntity.ok(ApiResponse.success("题目分割识别成功", result));
+                })
+                .exceptionally(e -> {
+                    log.error("题目分割识别失败", e);
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(ApiResponse.error("识别失败：" + e.getMessage()));
+                });
     }
 
     /**
@@ -277,9 +344,16 @@ public class UploadController {
             log.info("分类：{}，难度：{}，图片URL：{}", category, difficulty, imageUrl);
             
             List<QuestionDTO> savedQuestions = new ArrayList<>();
-            List<Long> pendingIds = new ArrayList<>();
+            // 整页多题批量保存走 BULK 通道，单题保存仍按用户可见任务处理
+            AiLane lane = selectedQuestions.size() > 1 ? AiLane.BULK : AiLane.USER_VISIBLE;
 
-            // 快速保存阶段：先把题目落库为"待AI解析"，立即返回，AI 分类/解析放到后台异步进行
+            // 准入控制：积压过多时在落库前拒绝，避免题目以 PENDING 写入后长时间卡在队列里
+            AiAdmissionService.Decision admission = aiAdmissionService.check(selectedQuestions.size(), lane);
+            if (!admission.admitted()) {
+                return admission.toRejection();
+            }
+
+            // 快速保存阶段：先把题目落库为"待AI解析"（同事务写入 AI 任务），立即返回，AI 分类/解析由后台任务执行器完成
             for (Map<String, Object> questionData : selectedQuestions) {
                 CreateQuestionRequest createRequest = new CreateQuestionRequest();
 
@@ -310,9 +384,8 @@ public class UploadController {
                 }
 
                 try {
-                    QuestionDTO savedQuestion = questionService.createPendingQuestion(createRequest);
+                    QuestionDTO savedQuestion = questionService.createPendingQuestion(createRequest, lane);
                     savedQuestions.add(savedQuestion);
-                    pendingIds.add(savedQuestion.getId());
                     log.info("成功保存待解析题目 ID: {}", savedQuestion.getId());
                 } catch (Exception e) {
                     log.error("保存单个题目失败: {}", content.substring(0, Math.min(30, content.length())), e);
@@ -320,15 +393,11 @@ public class UploadController {
                 }
             }
 
-            // 触发后台异步 AI 处理（不阻塞响应）
-            for (Long id : pendingIds) {
-                asyncAiProcessingService.processQuestion(id);
-            }
-
             Map<String, Object> result = new HashMap<>();
             result.put("savedCount", savedQuestions.size());
             result.put("questions", savedQuestions);
             result.put("pending", true);
+            result.put("queueEtaSeconds", admission.etaSeconds());
 
             log.info("批量保存题目完成，已提交{}道题目进入后台AI解析", savedQuestions.size());
             return ResponseEntity.ok(ApiResponse.success("题目保存成功，AI解析中", result));
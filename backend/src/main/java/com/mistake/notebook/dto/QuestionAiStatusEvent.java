@@ -0,0 +1,27 @@
+package com.mistake.notebook.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 题目 AI 解析状态变化事件（SSE 推送给前端，只带状态不带题目正文）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuestionAiStatusEvent {
+
+    private Long questionId;
+
+    /**
+     * pending / processing / completed / failed
+     */
+    private String aiStatus;
+
+    private String aiError;
+
+    private LocalDateTime at;
+}
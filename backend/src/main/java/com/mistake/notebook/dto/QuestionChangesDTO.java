@@ -0,0 +1,24 @@
+package com.mistake.notebook.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 题目增量同步结果：游标之后新建/修改的题目（当前完整内容）与已删除题目的ID（墓碑）。
+ * 前端保存 nextCursor，下次以它作为 since 继续拉取；hasMore 为 true 时应立即接着拉下一页。
+ * 游标不会越过可能尚未提交的变更，但提交耗时超过 questions.changes.gap-wait-ms 的事务仍可能被漏掉，
+ * 前端应在启动时或每天做一次全量同步（不传 since）兜底
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuestionChangesDTO {
+
+    private List<QuestionDTO> upserts;
+    private List<Long> deletedIds;
+    private String nextCursor;
+    private boolean hasMore;
+}
@@ -0,0 +1,22 @@
+package com.mistake.notebook.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 题目键集分页结果：nextCursor 传回 cursor 参数即取下一页，hasMore 为 false 时已到末尾；
+ * total 仅在请求 withTotal=true 时统计，否则为 null
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuestionSliceDTO {
+
+    private List<QuestionDTO> content;
+    private String nextCursor;
+    private boolean hasMore;
+    private Long total;
+}
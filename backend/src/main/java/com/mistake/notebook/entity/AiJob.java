@@ -0,0 +1,126 @@
+package com.mistake.notebook.entity;
+
+import com.mistake.notebook.config.AiClient;
+import com.mistake.notebook.config.AiLane;
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.LocalDateTime;
+
+/**
+ * 持久化 AI 后台任务（数据库队列）。
+ * 任务随业务数据同事务写入，由 AiJobWorker 轮询领取执行；领取后在 lockedUntil 之前对其它领取者不可见，
+ * 执行者宕机、租约过期后任务会被重新领取（至少执行一次），因此任务处理必须幂等。
+ * 任务按优先级通道（lane）分别领取，每个通道在执行器中有预留槽位，批量任务不会挡住用户正在等待的任务；
+ * 同一通道内按提交方（clientId）轮转领取，单个客户端的大批量提交不会挡住其他客户端。
+ */
+@Entity
+@Table(name = "ai_jobs", indexes = {
+        @Index(name = "idx_ai_jobs_status_available", columnList = "status, available_at"),
+        @Index(name = "idx_ai_jobs_lane_status_available", columnList = "lane, status, available_at"),
+        @Index(name = "idx_ai_jobs_client_status", columnList = "client_id, status"),
+        @Index(name = "idx_ai_jobs_status_updated", columnList = "status, updated_at"),
+        @Index(name = "idx_ai_jobs_target", columnList = "type, target_id")
+})
+@Data
+@EqualsAndHashCode(callSuper = false)
+@EntityListeners(AuditingEntityListener.class)
+public class AiJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * 任务类型
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type", length = 30, nullable = false)
+    private JobType type;
+
+    /**
+     * 任务对象ID（题目ID / 上传任务ID）
+     */
+    @Column(name = "target_id", nullable = false)
+    private Long targetId;
+
+    /**
+     * 优先级通道：USER_VISIBLE(用户等待结果) / BULK(批量保存、恢复扫描)
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "lane", columnDefinition = "VARCHAR(20) NOT NULL DEFAULT 'USER_VISIBLE'")
+    private AiLane lane = AiLane.USER_VISIBLE;
+
+    /**
+     * 提交方标识（前端 X-Client-Id，缺失时为来源 IP；定时任务为 system）
+     */
+    @Column(name = "client_id", columnDefinition = "VARCHAR(64) NOT NULL DEFAULT 'system'")
+    private String clientId = AiClient.SYSTEM;
+
+    /**
+     * 任务状态
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 20, nullable = false)
+    private Status status = Status.QUEUED;
+
+    /**
+     * 已执行次数
+     */
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    /**
+     * 最早可被领取的时间（失败重试时后移）
+     */
+    @Column(name = "available_at", nullable = false)
+    private LocalDateTime availableAt;
+
+    /**
+     * 领取者（节点标识）
+     */
+    @Column(name = "locked_by", length = 100)
+    private String lockedBy;
+
+    /**
+     * 租约到期时间：超过后视为执行者失联，任务可被重新领取
+     */
+    @Column(name = "locked_until")
+    private LocalDateTime lockedUntil;
+
+    /**
+     * 最近一次失败原因
+     */
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @CreatedDate
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @LastModifiedDate
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    /**
+     * 任务类型：QUESTION_ANALYSIS(题目分类与解析) / UPLOAD_RECOGNITION(拍照上传的视觉识别)
+     */
+    public enum JobType {
+        QUESTION_ANALYSIS,
+        UPLOAD_RECOGNITION
+    }
+
+    /**
+     * 任务状态：QUEUED(排队) / RUNNING(执行中) / SUCCEEDED(成功) / FAILED(重试耗尽)
+     */
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+}
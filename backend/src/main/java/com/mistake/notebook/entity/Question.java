@@ -3,6 +3,7 @@ package com.mistake.notebook.entity;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import org.hibernate.annotations.BatchSize;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -14,7 +15,10 @@ import java.util.List;
  * 题目实体类
  */
 @Entity
-@Table(name = "questions")
+@Table(name = "questions", indexes = {
+        @Index(name = "idx_questions_deleted_created", columnList = "is_deleted, created_at, id"),
+        @Index(name = "idx_questions_category_deleted_created", columnList = "category, is_deleted, created_at, id")
+})
 @Data
 @EqualsAndHashCode(callSuper = false)
 @EntityListeners(AuditingEntityListener.class)
@@ -56,9 +60,10 @@ public class Question {
     private DifficultyLevel difficulty;
 
     /**
-     * 标签列表
+     * 标签列表（延迟加载；未随查询取出时按批加载，一次最多覆盖 100 道题目）
      */
     @ElementCollection
+    @BatchSize(size = 100)
     @CollectionTable(name = "question_tags", joinColumns = @JoinColumn(name = "question_id"))
     @Column(name = "tag")
     private List<String> tags;
@@ -0,0 +1,59 @@
+package com.mistake.notebook.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.LocalDateTime;
+
+/**
+ * 题目变更记录（增量同步的变更序列）。
+ * 题目的新建、修改、删除与 AI 结果/状态推进都在同一事务中追加一条记录，自增 id 即变更序号，
+ * 前端以上次同步到的序号为游标拉取之后的变更（GET /questions/changes）。
+ * 同一题目被更早的记录覆盖后，旧记录会被定期清理，表的规模约等于题目数 + 最近的变更量。
+ */
+@Entity
+@Table(name = "question_changes", indexes = {
+        @Index(name = "idx_question_changes_question", columnList = "question_id"),
+        @Index(name = "idx_question_changes_created", columnList = "created_at")
+})
+@Data
+@EqualsAndHashCode(callSuper = false)
+@NoArgsConstructor
+@EntityListeners(AuditingEntityListener.class)
+public class QuestionChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "question_id", nullable = false)
+    private Long questionId;
+
+    /**
+     * 变更类型
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type", length = 10, nullable = false)
+    private ChangeType type;
+
+    @CreatedDate
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    public QuestionChange(Long questionId, ChangeType type) {
+        this.questionId = questionId;
+        this.type = type;
+    }
+
+    /**
+     * 变更类型：UPSERT(新建/修改/AI 结果) / DELETE(逻辑删除，同步时下发墓碑)
+     */
+    public enum ChangeType {
+        UPSERT,
+        DELETE
+    }
+}
@@ -0,0 +1,83 @@
+package com.mistake.notebook.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.LocalDateTime;
+
+/**
+ * 拍照上传任务。
+ * 上传接口只负责落盘图片并创建任务后立即返回任务ID，视觉识别与 AI 分类/解析在后台分阶段完成，
+ * 前端按任务ID查询进度；识别完成后生成的题目通过 questionId 关联。
+ */
+@Entity
+@Table(name = "upload_jobs")
+@Data
+@EqualsAndHashCode(callSuper = false)
+@EntityListeners(AuditingEntityListener.class)
+public class UploadJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * 图片访问URL（/uploads/xxx）
+     */
+    @Column(name = "image_url", length = 255, nullable = false)
+    private String imageUrl;
+
+    /**
+     * 原始文件名
+     */
+    @Column(name = "original_filename", length = 255)
+    private String originalFilename;
+
+    /**
+     * 图片类型
+     */
+    @Column(name = "content_type", length = 50)
+    private String contentType;
+
+    /**
+     * 当前阶段
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "stage", length = 20, nullable = false)
+    private Stage stage = Stage.QUEUED;
+
+    /**
+     * 识别完成后创建的题目ID
+     */
+    @Column(name = "question_id")
+    private Long questionId;
+
+    /**
+     * 失败原因
+     */
+    @Column(name = "error", columnDefinition = "TEXT")
+    private String error;
+
+    @CreatedDate
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @LastModifiedDate
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    /**
+     * 任务阶段：QUEUED(排队) / RECOGNIZING(视觉识别) / ANALYZING(AI分类与解析) / COMPLETED(完成) / FAILED(失败)
+     */
+    public enum Stage {
+        QUEUED,
+        RECOGNIZING,
+        ANALYZING,
+        COMPLETED,
+        FAILED
+    }
+}
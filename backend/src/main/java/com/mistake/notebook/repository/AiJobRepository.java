@@ -0,0 +1,138 @@
+package com.mistake.notebook.repository;
+
+import com.mistake.notebook.config.AiLane;
+import com.mistake.notebook.entity.AiJob;
+import org.springframework.data.domain.Pageable;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * AI 后台任务数据访问层
+ */
+@Repository
+public interface AiJobRepository extends JpaRepository<AiJob, Long> {
+
+    /**
+     * 是否已有同一对象的未完成任务（入队去重）
+     */
+    boolean existsByTypeAndTargetIdAndStatusIn(AiJob.JobType type, Long targetId, Collection<AiJob.Status> statuses);
+
+    /**
+     * 入队时同一对象已有排队任务：提升到更高优先级的通道（如批量保存的题目被用户手动重试）
+     */
+    @Modifying
+    @Query("UPDATE AiJob j SET j.lane = :lane WHERE j.type = :type AND j.targetId = :targetId " +
+            "AND j.status = :queued AND j.lane IN :lowerLanes")
+    int promoteLane(@Param("type") AiJob.JobType type, @Param("targetId") Long targetId,
+                    @Param("lane") AiLane lane, @Param("lowerLanes") Collection<AiLane> lowerLanes,
+                    @Param("queued") AiJob.Status queued);
+
+    /**
+     * 指定通道中各客户端的可领取任务积压：[clientId, 任务数]，按最早可领取时间排序
+     */
+    @Query(value = "SELECT client_id, COUNT(*) FROM ai_jobs WHERE lane = :lane " +
+            "AND ((status = 'QUEUED' AND available_at <= :now) OR (status = 'RUNNING' AND locked_until < :now)) " +
+            "GROUP BY client_id ORDER BY MIN(available_at) LIMIT :maxClients", nativeQuery = true)
+    List<Object[]> findClaimableBacklog(@Param("lane") String lane, @Param("now") LocalDateTime now,
+                                        @Param("maxClients") int maxClients);
+
+    /**
+     * 各客户端租约有效的执行中任务数（全集群）：[clientId, 任务数]
+     */
+    @Query("SELECT j.clientId, COUNT(j) FROM AiJob j WHERE j.status = :running AND j.lockedUntil >= :now " +
+            "GROUP BY j.clientId")
+    List<Object[]> countInFlightByClient(@Param("running") AiJob.Status running, @Param("now") LocalDateTime now);
+
+    /**
+     * 指定通道、指定客户端的可领取任务：到期的排队任务，或租约已过期的执行中任务
+     */
+    @Query("SELECT j FROM AiJob j WHERE j.lane = :lane AND j.clientId = :clientId " +
+            "AND ((j.status = :queued AND j.availableAt <= :now) " +
+            "OR (j.status = :running AND j.lockedUntil < :now)) ORDER BY j.availableAt, j.id")
+    List<AiJob> findClaimable(@Param("lane") AiLane lane, @Param("clientId") String clientId,
+                              @Param("queued") AiJob.Status queued, @Param("running") AiJob.Status running,
+                              @Param("now") LocalDateTime now, Pageable pageable);
+
+    default List<AiJob> findClaimable(AiLane lane, String clientId, LocalDateTime now, Pageable pageable) {
+        return findClaimable(lane, clientId, AiJob.Status.QUEUED, AiJob.Status.RUNNING, now, pageable);
+    }
+
+    /**
+     * 多节点领取（MySQL 8+）：锁定指定通道、指定客户端一批可领取任务的行，已被其它节点锁定的行直接跳过，互不等待
+     */
+    @Query(value = "SELECT id FROM ai_jobs WHERE lane = :lane AND client_id = :clientId " +
+            "AND ((status = 'QUEUED' AND available_at <= :now) OR (status = 'RUNNING' AND locked_until < :now)) " +
+            "ORDER BY available_at, id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Long> lockClaimableIds(@Param("lane") String lane, @Param("clientId") String clientId,
+                                @Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * 把已锁定的任务标记为本节点领取
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE AiJob j SET j.status = :running, j.lockedBy = :owner, j.lockedUntil = :until, " +
+            "j.attempts = j.attempts + 1, j.updatedAt = :now WHERE j.id IN :ids")
+    int markClaimed(@Param("ids") Collection<Long> ids, @Param("owner") String owner,
+                    @Param("until") LocalDateTime until, @Param("now") LocalDateTime now,
+                    @Param("running") AiJob.Status running);
+
+    /**
+     * 条件更新领取（不支持 SKIP LOCKED 的数据库）：只有任务仍可领取时才更新成功，并发领取者中只有一个能拿到
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE AiJob j SET j.status = :running, j.lockedBy = :owner, j.lockedUntil = :until, " +
+            "j.attempts = j.attempts + 1, j.updatedAt = :now WHERE j.id = :id " +
+            "AND ((j.status = :queued AND j.availableAt <= :now) OR (j.status = :running AND j.lockedUntil < :now))")
+    int tryClaim(@Param("id") Long id, @Param("owner") String owner,
+                 @Param("until") LocalDateTime until, @Param("now") LocalDateTime now,
+                 @Param("queued") AiJob.Status queued, @Param("running") AiJob.Status running);
+
+    /**
+     * 加行锁读取本节点持有的执行中任务（完成/失败回写时校验租约仍归本节点）
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT j FROM AiJob j WHERE j.id = :id AND j.lockedBy = :owner AND j.status = :running")
+    Optional<AiJob> findOwnedForUpdate(@Param("id") Long id, @Param("owner") String owner,
+                                       @Param("running") AiJob.Status running);
+
+    /**
+     * 续租：延长本节点仍在执行的任务的租约
+     */
+    @Modifying
+    @Query("UPDATE AiJob j SET j.lockedUntil = :until WHERE j.id IN :ids AND j.lockedBy = :owner AND j.status = :running")
+    int extendLeases(@Param("ids") Collection<Long> ids, @Param("owner") String owner,
+                     @Param("until") LocalDateTime until, @Param("running") AiJob.Status running);
+
+    /**
+     * 清理过期的已结束任务
+     */
+    @Modifying
+    @Query("DELETE FROM AiJob j WHERE j.status IN :statuses AND j.updatedAt < :before")
+    int deleteByStatusInAndUpdatedAtBefore(@Param("statuses") Collection<AiJob.Status> statuses,
+                                           @Param("before") LocalDateTime before);
+
+    /**
+     * 按状态统计任务数量
+     */
+    long countByStatus(AiJob.Status status);
+
+    /**
+     * 统计指定时间之后结束的任务数（估算全集群消化速度）
+     */
+    long countByStatusInAndUpdatedAtAfter(Collection<AiJob.Status> statuses, LocalDateTime after);
+
+    /**
+     * 按通道与状态统计任务数量
+     */
+    long countByLaneAndStatus(AiLane lane, AiJob.Status status);
+}
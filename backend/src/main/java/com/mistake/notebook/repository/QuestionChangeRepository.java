@@ -0,0 +1,57 @@
+package com.mistake.notebook.repository;
+
+import com.mistake.notebook.entity.QuestionChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 题目变更记录数据访问层
+ */
+@Repository
+public interface QuestionChangeRepository extends JpaRepository<QuestionChange, Long> {
+
+    /**
+     * 游标之后已提交的变更序号：[id, createdAt]，按序号升序（用于检查序号空洞）
+     */
+    @Query("SELECT c.id, c.createdAt FROM QuestionChange c WHERE c.id > :since ORDER BY c.id")
+    List<Object[]> findSequenceAfter(@Param("since") long since, Pageable pageable);
+
+    /**
+     * 序号区间 (since, until] 内发生过变更的题目：[questionId, 最新变更序号]，按最新变更序号升序
+     */
+    @Query("SELECT c.questionId, MAX(c.id) FROM QuestionChange c " +
+            "WHERE c.id > :since AND c.id <= :until " +
+            "GROUP BY c.questionId ORDER BY MAX(c.id)")
+    List<Object[]> findLatestChangesAfter(@Param("since") long since,
+                                          @Param("until") long until,
+                                          Pageable pageable);
+
+    /**
+     * 清理已被同一题目更新的变更覆盖的旧记录（每道题目始终保留最新一条，任意旧游标都能同步完整）
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE c FROM question_changes c JOIN question_changes n " +
+            "ON n.question_id = c.question_id AND n.id > c.id " +
+            "WHERE c.created_at < :before", nativeQuery = true)
+    int deleteSuperseded(@Param("before") LocalDateTime before);
+
+    /**
+     * 为尚无变更记录的题目补一条 UPSERT（变更表上线前的历史题目），按题目ID顺序写入
+     */
+    @Modifying
+    @Query(value = "INSERT INTO question_changes (question_id, type, created_at) " +
+            "SELECT q.id, 'UPSERT', :now FROM questions q " +
+            "WHERE (q.is_deleted = 0 OR q.is_deleted IS NULL) " +
+            "AND NOT EXISTS (SELECT 1 FROM question_changes c WHERE c.question_id = q.id) " +
+            "ORDER BY q.id", nativeQuery = true)
+    int backfillMissing(@Param("now") LocalDateTime now);
+}
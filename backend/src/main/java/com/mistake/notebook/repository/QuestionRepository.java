@@ -1,18 +1,24 @@
 package com.mistake.notebook.repository;
 
+import com.mistake.notebook.entity.AiJob;
 import com.mistake.notebook.entity.Question;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
- * 题目数据访问层
+ * 题目数据访问层。
+ * 返回整个列表的查询通过 @EntityGraph 在同一条 SQL 中连带取出标签；分页/按ID查询的标签
+ * 由 Question.tags 上的 @BatchSize 按批加载，避免逐行触发 question_tags 查询（N+1）
  */
 @Repository
 public interface QuestionRepository extends JpaRepository<Question, Long> {
@@ -20,22 +26,26 @@ public interface QuestionRepository extends JpaRepository<Question, Long> {
     /**
      * 根据分类查询题目（未删除）
      */
+    @EntityGraph(attributePaths = "tags")
     List<Question> findByCategoryAndIsDeletedFalseOrderByCreatedAtDesc(String category);
 
     /**
      * 根据难度查询题目（未删除）
      */
+    @EntityGraph(attributePaths = "tags")
     List<Question> findByDifficultyAndIsDeletedFalseOrderByCreatedAtDesc(Question.DifficultyLevel difficulty);
 
     /**
      * 根据分类和难度查询题目（未删除）
      */
+    @EntityGraph(attributePaths = "tags")
     List<Question> findByCategoryAndDifficultyAndIsDeletedFalseOrderByCreatedAtDesc(
             String category, Question.DifficultyLevel difficulty);
 
     /**
      * 查询所有未删除的题目
      */
+    @EntityGraph(attributePaths = "tags")
     List<Question> findByIsDeletedFalseOrderByCreatedAtDesc();
 
     /**
@@ -53,16 +63,56 @@ public interface QuestionRepository extends JpaRepository<Question, Long> {
      */
     Page<Question> findByDifficultyAndIsDeletedFalse(Question.DifficultyLevel difficulty, Pageable pageable);
 
+    /**
+     * 键集分页（按创建时间倒序）：取排在 (createdAt, id) 之后的下一批题目，分类/难度为 null 时不过滤。
+     * 不使用偏移量，翻到多深都只扫描一页的行数
+     */
+    @Query("SELECT q FROM Question q WHERE q.isDeleted = false " +
+            "AND (:category IS NULL OR q.category = :category) " +
+            "AND (:difficulty IS NULL OR q.difficulty = :difficulty) " +
+            "AND (q.createdAt < :createdAt OR (q.createdAt = :createdAt AND q.id < :id)) " +
+            "ORDER BY q.createdAt DESC, q.id DESC")
+    List<Question> findPageBefore(@Param("category") String category,
+                                  @Param("difficulty") Question.DifficultyLevel difficulty,
+                                  @Param("createdAt") LocalDateTime createdAt,
+                                  @Param("id") Long id,
+                                  Pageable pageable);
+
+    /**
+     * 键集分页（按创建时间正序）
+     */
+    @Query("SELECT q FROM Question q WHERE q.isDeleted = false " +
+            "AND (:category IS NULL OR q.category = :category) " +
+            "AND (:difficulty IS NULL OR q.difficulty = :difficulty) " +
+            "AND (q.createdAt > :createdAt OR (q.createdAt = :createdAt AND q.id > :id)) " +
+            "ORDER BY q.createdAt ASC, q.id ASC")
+    List<Question> findPageAfter(@Param("category") String category,
+                                 @Param("difficulty") Question.DifficultyLevel difficulty,
+                                 @Param("createdAt") LocalDateTime createdAt,
+                                 @Param("id") Long id,
+                                 Pageable pageable);
+
+    /**
+     * 键集分页的总数（可选，调用方不需要时不执行）
+     */
+    @Query("SELECT COUNT(q) FROM Question q WHERE q.isDeleted = false " +
+            "AND (:category IS NULL OR q.category = :category) " +
+            "AND (:difficulty IS NULL OR q.difficulty = :difficulty)")
+    long countFiltered(@Param("category") String category,
+                       @Param("difficulty") Question.DifficultyLevel difficulty);
+
     /**
      * 根据内容关键词搜索题目（未删除）
      */
+    @EntityGraph(attributePaths = "tags")
     @Query("SELECT q FROM Question q WHERE q.content LIKE %:keyword% AND q.isDeleted = false ORDER BY q.createdAt DESC")
     List<Question> findByContentContainingAndIsDeletedFalse(@Param("keyword") String keyword);
 
     /**
      * 根据标签查询题目（未删除）
      */
-    @Query("SELECT q FROM Question q JOIN q.tags t WHERE t = :tag AND q.isDeleted = false ORDER BY q.createdAt DESC")
+    @EntityGraph(attributePaths = "tags")
+    @Query("SELECT q FROM Question q WHERE :tag MEMBER OF q.tags AND q.isDeleted = false ORDER BY q.createdAt DESC")
     List<Question> findByTagAndIsDeletedFalse(@Param("tag") String tag);
 
     /**
@@ -80,6 +130,7 @@ public interface QuestionRepository extends JpaRepository<Question, Long> {
     /**
      * 根据ID列表查询题目（未删除）
      */
+    @EntityGraph(attributePaths = "tags")
     List<Question> findByIdInAndIsDeletedFalseOrderByCreatedAtDesc(List<Long> ids);
 
     /**
@@ -100,10 +151,49 @@ public interface QuestionRepository extends JpaRepository<Question, Long> {
     /**
      * 根据分类ID查询题目列表
      */
+    @EntityGraph(attributePaths = "tags")
     List<Question> findByCategoryIdAndIsDeletedFalseOrderByCreatedAtDesc(Long categoryId);
 
     /**
-     * 根据AI解析状态查询题目（未删除）—— 用于"解析中"轮询
+     * 根据AI解析状态查询题目（未删除）—— 用于"解析中"列表的初始加载与断线重连后的兜底同步
      */
+    @EntityGraph(attributePaths = "tags")
     List<Question> findByAiStatusInAndIsDeletedFalseOrderByCreatedAtDesc(List<Question.AiStatus> statuses);
-} 
\ No newline at end of file
+
+    /**
+     * 查询长时间停留在某些 AI 状态、且队列中没有未完成任务的题目（未删除），最久未更新的在前 —— 用于恢复扫描
+     */
+    @Query("SELECT q FROM Question q WHERE q.aiStatus IN :statuses AND q.isDeleted = false AND q.updatedAt < :before " +
+            "AND NOT EXISTS (SELECT j.id FROM AiJob j WHERE j.type = :jobType AND j.targetId = q.id AND j.status IN :activeJobStatuses) " +
+            "ORDER BY q.updatedAt ASC")
+    List<Question> findOrphanedAiQuestions(@Param("statuses") List<Question.AiStatus> statuses,
+                                           @Param("before") LocalDateTime before,
+                                           @Param("jobType") AiJob.JobType jobType,
+                                           @Param("activeJobStatuses") List<AiJob.Status> activeJobStatuses,
+                                           Pageable pageable);
+
+    /**
+     * AI 状态比较并交换：仅当当前状态在 expected 中时改为 target 并写入失败原因，返回受影响行数（0 表示状态已被改变）
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE Question q SET q.aiStatus = :target, q.aiError = :error, q.updatedAt = :now " +
+            "WHERE q.id = :id AND q.isDeleted = false AND q.aiStatus IN :expected")
+    int compareAndSetAiStatus(@Param("id") Long id,
+                              @Param("expected") Collection<Question.AiStatus> expected,
+                              @Param("target") Question.AiStatus target,
+                              @Param("error") String error,
+                              @Param("now") LocalDateTime now);
+
+    /**
+     * 领取题目的 AI 处理权：PENDING，或 PROCESSING 但处理租约（updatedAt）已过期的题目改为 PROCESSING
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE Question q SET q.aiStatus = :processing, q.updatedAt = :now " +
+            "WHERE q.id = :id AND q.isDeleted = false " +
+            "AND (q.aiStatus = :pending OR (q.aiStatus = :processing AND q.updatedAt < :staleBefore))")
+    int claimAiProcessing(@Param("id") Long id,
+                          @Param("pending") Question.AiStatus pending,
+                          @Param("processing") Question.AiStatus processing,
+                          @Param("now") LocalDateTime now,
+                          @Param("staleBefore") LocalDateTime staleBefore);
+}
@@ -0,0 +1,59 @@
+package com.mistake.notebook.repository;
+
+import com.mistake.notebook.entity.Question;
+import com.mistake.notebook.entity.UploadJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+/**
+ * 拍照上传任务数据访问层
+ */
+@Repository
+public interface UploadJobRepository extends JpaRepository<UploadJob, Long> {
+
+    /**
+     * 处于 from 阶段之一的任务推进到 to 阶段（比较并交换，重复投递的任务只有一个能推进成功）
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE UploadJob j SET j.stage = :to, j.updatedAt = :now WHERE j.id = :id AND j.stage IN :from")
+    int advanceStage(@Param("id") Long id,
+                     @Param("from") Collection<UploadJob.Stage> from,
+                     @Param("to") UploadJob.Stage to,
+                     @Param("now") LocalDateTime now);
+
+    /**
+     * 关联识别完成后创建的题目
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE UploadJob j SET j.questionId = :questionId, j.updatedAt = :now WHERE j.id = :id")
+    int attachQuestion(@Param("id") Long id, @Param("questionId") Long questionId, @Param("now") LocalDateTime now);
+
+    /**
+     * 关联题目处于 from 阶段的上传任务推进到 to 阶段（条件更新，重复事件不会重复推进）
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE UploadJob j SET j.stage = :to, j.updatedAt = :now " +
+            "WHERE j.questionId = :questionId AND j.stage = :from")
+    int advanceStageByQuestion(@Param("questionId") Long questionId,
+                               @Param("from") UploadJob.Stage from,
+                               @Param("to") UploadJob.Stage to,
+                               @Param("now") LocalDateTime now);
+
+    /**
+     * 关联题目已解析结束、但仍停在解析阶段的任务推进为完成（状态事件监听上线前遗留的任务）
+     */
+    @Modifying
+    @Query("UPDATE UploadJob j SET j.stage = :completed, j.updatedAt = :now " +
+            "WHERE j.stage = :analyzing AND j.questionId IN " +
+            "(SELECT q.id FROM Question q WHERE q.aiStatus IN :finished)")
+    int completeFinishedAnalyzing(@Param("analyzing") UploadJob.Stage analyzing,
+                                  @Param("completed") UploadJob.Stage completed,
+                                  @Param("finished") Collection<Question.AiStatus> finished,
+                                  @Param("now") LocalDateTime now);
+}
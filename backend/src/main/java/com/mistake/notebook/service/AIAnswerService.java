@@ -1,17 +1,25 @@
 package com.mistake.notebook.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mistake.notebook.config.AIConfig;
+import com.mistake.notebook.config.LlmResponseDecoder;
 import com.mistake.notebook.config.SimpleOpenAIClient;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Response;
+import okio.BufferedSource;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
@@ -28,68 +36,90 @@ public class AIAnswerService {
             如果无法作答，answer写"待补充"，analysis说明原因。
             """;
 
+    private static final String EMPTY_QUESTION_REPLY = "请先输入你的问题。";
+    private static final String ERROR_REPLY = "抱歉，我这边出了点问题，请稍后再试。";
+    private static final String NETWORK_ERROR_REPLY = "网络好像不太顺畅，请稍后再问我一次。";
+
     private final SimpleOpenAIClient openAIClient;
     private final AIConfig aiConfig;
-    private final ObjectMapper objectMapper;
+    private final LlmResponseDecoder responseDecoder;
+    private final Executor chatStreamExecutor;
 
     public AnswerResult generateAnswer(String questionText) {
-        if (questionText == null || questionText.trim().isEmpty()) {
-            return AnswerResult.empty("题目内容为空");
-        }
-
-        try {
-            Map<String, Object> requestData = new HashMap<>();
-            requestData.put("model", aiConfig.getModel());
-            requestData.put("temperature", 0.3);
-            requestData.put("max_tokens", 800);
-            requestData.put("stream", false);
-            requestData.put("response_format", Map.of("type", "json_object"));
-
-            List<Map<String, String>> messages = new ArrayList<>();
-            messages.add(Map.of("role", "system", "content", ANSWER_PROMPT));
-            messages.add(Map.of("role", "user", "content", questionText));
-            requestData.put("messages", messages);
+        return generateAnswerAsync(questionText).join();
+    }
 
-            try (Response response = openAIClient.createChatCompletion(requestData)) {
-                String responseBody = response.body() != null ? response.body().string() : "";
+    /**
+     * 异步生成答案与解析：请求走共享连接池，解析在响应回调中完成，失败时以 AnswerResult.empty 正常结束
+     */
+    public CompletableFuture<AnswerResult> generateAnswerAsync(String questionText) {
+        return generateAnswerAsync(questionText, null);
+    }
 
-                if (!response.isSuccessful()) {
-                    log.error("AI答案生成失败，状态码 {}，响应 {}", response.code(), responseBody);
-                    return AnswerResult.empty("AI接口HTTP状态码：" + response.code());
-                }
+    /**
+     * 带整次调用期限的异步生成：到期后取消上游请求并归还限流许可，以"AI答案生成超时"结束
+     */
+    public CompletableFuture<AnswerResult> generateAnswerAsync(String questionText, Duration timeout) {
+        if (questionText == null || questionText.trim().isEmpty()) {
+            return CompletableFuture.completedFuture(AnswerResult.empty("题目内容为空"));
+        }
 
-                if (responseBody.isBlank()) {
-                    log.error("AI答案生成失败，响应体为空");
-                    return AnswerResult.empty("AI接口响应为空");
-                }
+        Map<String, Object> requestData = new HashMap<>();
+        requestData.put("model", aiConfig.getModel());
+        requestData.put("temperature", 0.3);
+        requestData.put("max_tokens", 800);
+        requestData.put("stream", false);
+        requestData.put("response_format", Map.of("type", "json_object"));
 
-                JsonNode root = objectMapper.readTree(responseBody);
-                JsonNode choices = root.path("choices");
-                if (!choices.isArray() || choices.isEmpty()) {
-                    log.warn("AI答案返回空choices，原始响应：{}", responseBody);
-                    return AnswerResult.empty("AI回答choices为空");
-                }
+        List<Map<String, String>> messages = new ArrayList<>();
+        messages.add(Map.of("role", "system", "content", ANSWER_PROMPT));
+        messages.add(Map.of("role", "user", "content", questionText));
+        requestData.put("messages", messages);
 
-                String content = choices.get(0).path("message").path("content").asText("");
-                if (content.isBlank()) {
-                    log.warn("AI答案返回内容为空，原始choices：{}", choices.get(0));
-                    return AnswerResult.empty("AI回答内容为空");
-                }
+        return openAIClient.createChatCompletionAsync(requestData, true, timeout)
+                .thenApply(this::parseAnswerResponse)
+                .exceptionally(e -> {
+                    Throwable cause = SimpleOpenAIClient.unwrap(e);
+                    log.error("生成AI答案失败", cause);
+                    return AnswerResult.empty(cause instanceof TimeoutException
+                            ? "AI答案生成超时"
+                            : "AI答案生成异常：" + cause.getMessage());
+                });
+    }
 
-                JsonNode contentJson = objectMapper.readTree(content);
-                String answer = contentJson.path("answer").asText("待补充");
-                String analysis = contentJson.path("analysis").asText("");
-                double confidence = contentJson.path("confidence").asDouble(0.85);
+    private AnswerResult parseAnswerResponse(Response response) {
+        try (response) {
+            if (!response.isSuccessful()) {
+                String errorBody = response.body() != null ? response.body().string() : "";
+                log.error("AI答案生成失败，状态码 {}，响应 {}", response.code(), errorBody);
+                return AnswerResult.empty("AI接口HTTP状态码：" + response.code());
+            }
 
-                log.info("AI答案生成成功：answer长度={}，confidence={}", answer.length(), confidence);
-                return new AnswerResult(answer, analysis, confidence, true);
+            LlmResponseDecoder.ChatCompletion completion = responseDecoder.decode(response.body());
+            if (!completion.hasContent()) {
+                log.warn("AI答案返回内容为空，finish_reason：{}", completion.finishReason());
+                return AnswerResult.empty("AI回答内容为空");
             }
+
+            AnswerResult result = fromPayload(responseDecoder.readPayload(completion.content(), AnswerPayload.class));
+            log.info("AI答案生成成功：answer长度={}，confidence={}", result.getAnswer().length(), result.getConfidence());
+            return result;
         } catch (Exception e) {
-            log.error("生成AI答案失败", e);
+            log.error("解析AI答案失败", e);
             return AnswerResult.empty("AI答案生成异常：" + e.getMessage());
         }
     }
 
+    /**
+     * 把模型输出的答案字段转换为结果（单独生成与合并分析共用）
+     */
+    AnswerResult fromPayload(AnswerPayload payload) {
+        String answer = payload.answer() != null ? payload.answer() : "待补充";
+        String analysis = payload.analysis() != null ? payload.analysis() : "";
+        double confidence = payload.confidence() != null ? payload.confidence() : 0.85;
+        return new AnswerResult(answer, analysis, confidence, true);
+    }
+
     /**
      * AI 答疑对话（对齐小程序 answer.chat）
      */
@@ -98,8 +128,111 @@ public class AIAnswerService {
     }
 
     public String chatReply(List<Map<String, String>> messages, String questionContext, String memoryBlock) {
+        Map<String, Object> requestData = buildChatRequest(messages, questionContext, memoryBlock, false);
+        if (requestData == null) {
+            return EMPTY_QUESTION_REPLY;
+        }
+
+        try {
+            try (Response response = openAIClient.createChatCompletion(requestData)) {
+                if (!response.isSuccessful()) {
+                    String errorBody = response.body() != null ? response.body().string() : "";
+                    log.error("AI chat 失败，状态码 {}，响应 {}", response.code(), errorBody);
+                    return ERROR_REPLY;
+                }
+                LlmResponseDecoder.ChatCompletion completion = responseDecoder.decode(response.body());
+                return completion.hasContent() ? completion.content() : ERROR_REPLY;
+            }
+        } catch (Exception e) {
+            log.error("AI chat 异常", e);
+            return NETWORK_ERROR_REPLY;
+        }
+    }
+
+    /**
+     * 流式 AI 答疑：以 stream:true 调用模型，每收到一段增量就回调 onDelta，
+     * future 在流结束后以完整回复完成；上游返回非 2xx 或流中没有任何内容时以 IOException 异常结束。
+     * onDelta 抛出异常（如客户端断开）会中止读取并关闭上游连接；取消返回的 future 同样会中止：
+     * 尚未收到响应头时取消上游请求并归还限流许可，读取中则在下一行处停止并关闭连接（两段输出之间不会立即中断）。
+     * 读取整段生成期间阻塞，交给 chatStreamExecutor 执行，onDelta 也在该线程回调，不占用 OkHttp 回调线程。
+     */
+    public CompletableFuture<String> chatReplyStream(List<Map<String, String>> messages, String questionContext,
+                                                     String memoryBlock, Consumer<String> onDelta) {
+        Map<String, Object> requestData = buildChatRequest(messages, questionContext, memoryBlock, true);
+        if (requestData == null) {
+            return CompletableFuture.completedFuture(EMPTY_QUESTION_REPLY);
+        }
+
+        CompletableFuture<Response> upstream = openAIClient.createChatCompletionAsync(requestData);
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        upstream.whenComplete((response, error) -> {
+            if (error != null) {
+                reply.completeExceptionally(error);
+                return;
+            }
+            try {
+                chatStreamExecutor.execute(() -> {
+                    try {
+                        reply.complete(readChatStream(response, onDelta, reply::isDone));
+                    } catch (Exception e) {
+                        reply.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                response.close();
+                reply.completeExceptionally(e);
+            }
+        });
+        reply.whenComplete((result, error) -> {
+            if (reply.isCancelled()) {
+                upstream.cancel(true);
+            }
+        });
+        return reply;
+    }
+
+    private String readChatStream(Response response, Consumer<String> onDelta, BooleanSupplier cancelled)
+            throws IOException {
+        try (response) {
+            if (!response.isSuccessful() || response.body() == null) {
+                String errorBody = response.body() != null ? response.body().string() : "";
+                log.error("AI chat 流式调用失败，状态码 {}，响应 {}", response.code(), errorBody);
+                throw new IOException("AI chat 流式调用失败，状态码 " + response.code());
+            }
+
+            // OpenAI 兼容的 SSE：每行 "data: {json}"，以 "data: [DONE]" 结束
+            BufferedSource source = response.body().source();
+            StringBuilder full = new StringBuilder();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (cancelled.getAsBoolean()) {
+                    throw new IOException("AI chat 流式输出已取消");
+                }
+                if (!line.startsWith("data:")) continue;
+                String data = line.substring(5).trim();
+                if (data.isEmpty()) continue;
+                if ("[DONE]".equals(data)) break;
+
+                String delta = responseDecoder.decode(data).content();
+                if (delta != null && !delta.isEmpty()) {
+                    full.append(delta);
+                    onDelta.accept(delta);
+                }
+            }
+            if (full.length() == 0) {
+                throw new IOException("AI chat 流式回复为空");
+            }
+            return full.toString();
+        }
+    }
+
+    /**
+     * 组装答疑请求；没有有效的学生提问时返回 null
+     */
+    private Map<String, Object> buildChatRequest(List<Map<String, String>> messages, String questionContext,
+                                                 String memoryBlock, boolean stream) {
         if (messages == null || messages.isEmpty()) {
-            return "请先输入你的问题。";
+            return null;
         }
 
         String contextBlock = (questionContext != null && !questionContext.isBlank())
@@ -115,46 +248,32 @@ public class AIAnswerService {
                 可以使用分步骤说明，必要时给出关键公式与思路，语言简洁友好，不要使用 markdown 代码块。
                 """;
 
-        try {
-            Map<String, Object> requestData = new HashMap<>();
-            requestData.put("model", aiConfig.getModel());
-            requestData.put("temperature", 0.6);
-            requestData.put("max_tokens", 1200);
-            requestData.put("stream", false);
-
-            List<Map<String, String>> chatMessages = new ArrayList<>();
-            chatMessages.add(Map.of("role", "system", "content", systemPrompt));
-            for (Map<String, String> m : messages) {
-                if (m == null || m.get("content") == null) continue;
-                String role = m.get("role");
-                if (!"user".equals(role) && !"assistant".equals(role)) continue;
-                chatMessages.add(Map.of("role", role, "content", m.get("content")));
-            }
-            if (chatMessages.size() <= 1) {
-                return "请先输入你的问题。";
-            }
-            requestData.put("messages", chatMessages);
+        Map<String, Object> requestData = new HashMap<>();
+        requestData.put("model", aiConfig.getModel());
+        requestData.put("temperature", 0.6);
+        requestData.put("max_tokens", 1200);
+        requestData.put("stream", stream);
 
-            try (Response response = openAIClient.createChatCompletion(requestData)) {
-                String responseBody = response.body() != null ? response.body().string() : "";
-                if (!response.isSuccessful()) {
-                    log.error("AI chat 失败，状态码 {}，响应 {}", response.code(), responseBody);
-                    return "抱歉，我这边出了点问题，请稍后再试。";
-                }
-                JsonNode root = objectMapper.readTree(responseBody);
-                JsonNode choices = root.path("choices");
-                if (!choices.isArray() || choices.isEmpty()) {
-                    return "抱歉，我这边出了点问题，请稍后再试。";
-                }
-                String content = choices.get(0).path("message").path("content").asText("");
-                return content.isBlank() ? "抱歉，我这边出了点问题，请稍后再试。" : content;
-            }
-        } catch (Exception e) {
-            log.error("AI chat 异常", e);
-            return "网络好像不太顺畅，请稍后再问我一次。";
+        List<Map<String, String>> chatMessages = new ArrayList<>();
+        chatMessages.add(Map.of("role", "system", "content", systemPrompt));
+        for (Map<String, String> m : messages) {
+            if (m == null || m.get("content") == null) continue;
+            String role = m.get("role");
+            if (!"user".equals(role) && !"assistant".equals(role)) continue;
+            chatMessages.add(Map.of("role", role, "content", m.get("content")));
         }
+        if (chatMessages.size() <= 1) {
+            return null;
+        }
+        requestData.put("messages", chatMessages);
+        return requestData;
     }
 
+    /**
+     * 模型输出的答案 JSON
+     */
+    public record AnswerPayload(String answer, String analysis, Double confidence) {}
+
     @Data
     @AllArgsConstructor
     public static class AnswerResult {
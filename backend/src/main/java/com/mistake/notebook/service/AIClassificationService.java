@@ -1,16 +1,22 @@
 package com.mistake.notebook.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mistake.notebook.config.AIConfig;
+import com.mistake.notebook.config.CircuitBreaker;
+import com.mistake.notebook.config.LlmResponseDecoder;
 import com.mistake.notebook.config.SimpleOpenAIClient;
 import com.mistake.notebook.entity.Question;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * AI分类服务
@@ -34,91 +40,169 @@ public class AIClassificationService {
 
     private final SimpleOpenAIClient openAIClient;
     private final AIConfig aiConfig;
-    private final ObjectMapper objectMapper;
-    private final Random random = new Random();
+    private final LlmResponseDecoder responseDecoder;
+
+    @Value("${ai.classification.llm-timeout-seconds:20}")
+    private long llmTimeoutSeconds;
+
+    @Value("${ai.classification.breaker.window-size:20}")
+    private int breakerWindowSize;
+
+    @Value("${ai.classification.breaker.minimum-calls:5}")
+    private int breakerMinimumCalls;
+
+    @Value("${ai.classification.breaker.failure-rate-threshold:0.5}")
+    private double breakerFailureRate;
+
+    @Value("${ai.classification.breaker.slow-rate-threshold:0.8}")
+    private double breakerSlowRate;
+
+    @Value("${ai.classification.breaker.slow-call-ms:10000}")
+    private long breakerSlowCallMs;
+
+    @Value("${ai.classification.breaker.open-seconds:30}")
+    private long breakerOpenSeconds;
+
+    @Value("${ai.classification.breaker.half-open-probes:2}")
+    private int breakerHalfOpenProbes;
+
+    private CircuitBreaker circuitBreaker;
+
+    @PostConstruct
+    public void initCircuitBreaker() {
+        circuitBreaker = new CircuitBreaker("LLM分类", breakerWindowSize, breakerMinimumCalls,
+                breakerFailureRate, breakerSlowRate, breakerSlowCallMs,
+                TimeUnit.SECONDS.toMillis(breakerOpenSeconds), breakerHalfOpenProbes);
+    }
 
     /**
      * 对题目进行智能分类
      */
     public ClassificationResult classifyQuestion(String questionText) {
+        return classifyQuestionAsync(questionText).join();
+    }
+
+    /**
+     * 异步分类：优先大模型，失败时回退本地关键词算法；熔断打开时直接走本地算法，毫秒级返回
+     */
+    public CompletableFuture<ClassificationResult> classifyQuestionAsync(String questionText) {
         if (questionText == null || questionText.trim().isEmpty()) {
-            return new ClassificationResult(false, "未分类", null, null, 0.0, "题目内容为空");
+            return CompletableFuture.completedFuture(
+                    new ClassificationResult(false, "未分类", null, null, 0.0, "题目内容为空"));
         }
 
-        log.info("开始调用大模型分类...");
-        ClassificationResult llmResult = classifyWithLLM(questionText);
-        if (llmResult != null) {
-            return llmResult;
+        if (!circuitBreaker.tryAcquire()) {
+            log.info("LLM分类熔断中，直接使用本地关键词算法");
+            return CompletableFuture.completedFuture(performSmartClassification(questionText));
         }
 
-        log.warn("大模型分类失败，使用本地关键词算法兜底");
-        return performSmartClassification(questionText);
+        log.info("开始调用大模型分类...");
+        long start = System.currentTimeMillis();
+        return classifyWithLLMAsync(questionText)
+                .handle((llmResult, error) -> {
+                    circuitBreaker.onResult(error == null && llmResult != null, System.currentTimeMillis() - start);
+                    if (error == null && llmResult != null) {
+                        return llmResult;
+                    }
+                    log.warn("大模型分类失败，使用本地关键词算法兜底");
+                    return performSmartClassification(questionText);
+                });
     }
 
-    private ClassificationResult classifyWithLLM(String questionText) {
+    /**
+     * 在分类熔断器保护下执行同一模型的其它调用（合并分析）：熔断打开时不发请求、直接返回 null，
+     * 调用方回退到分类 + 解析两次调用；结果为 null 或异常计为失败。
+     * 合并分析输出更长、本就慢于分类，只统计成败，不计入慢调用
+     */
+    public <T> CompletableFuture<T> callWithBreaker(Supplier<CompletableFuture<T>> llmCall) {
+        if (!circuitBreaker.tryAcquire()) {
+            log.info("LLM分类熔断中，跳过本次大模型调用");
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<T> future;
         try {
-            log.info("LLM分类请求配置 -> model: {}, baseUrl: {}, apiKeyPrefix: {}",
-                    aiConfig.getModel(),
-                    aiConfig.getBaseUrl(),
-                    aiConfig.getApiKey() != null && aiConfig.getApiKey().length() > 8
-                            ? aiConfig.getApiKey().substring(0, 8) + "****"
-                            : "null");
-
-            Map<String, Object> requestData = new HashMap<>();
-            requestData.put("model", aiConfig.getModel());
-            requestData.put("temperature", 0.2);
-            requestData.put("max_tokens", 600);
-            requestData.put("stream", false);
-            requestData.put("response_format", Map.of("type", "json_object"));
-
-            List<Map<String, String>> messages = new ArrayList<>();
-            messages.add(Map.of("role", "system", "content", CLASSIFICATION_PROMPT));
-            messages.add(Map.of("role", "user", "content", "题目如下：\n" + questionText));
-            requestData.put("messages", messages);
-
-            try (Response response = openAIClient.createChatCompletion(requestData)) {
-                String responseBody = response.body() != null ? response.body().string() : "";
-
-                if (!response.isSuccessful()) {
-                    log.error("分类LLM调用失败，状态码 {}，响应体：{}", response.code(), responseBody);
-                    return null;
-                }
+            future = llmCall.get();
+        } catch (RuntimeException e) {
+            circuitBreaker.onResult(false, 0);
+            throw e;
+        }
+        return future.whenComplete((result, error) -> circuitBreaker.onResult(error == null && result != null, 0));
+    }
 
-                log.debug("分类LLM响应：{}", responseBody);
-                JsonNode root = objectMapper.readTree(responseBody);
-                JsonNode choices = root.path("choices");
-                if (!choices.isArray() || choices.isEmpty()) {
-                    log.warn("分类LLM返回无choices");
-                    return null;
-                }
+    public Map<String, Object> circuitBreakerStats() {
+        return circuitBreaker.stats();
+    }
 
-                JsonNode messageNode = choices.get(0).path("message");
-                String content = messageNode.path("content").asText();
-                if (content == null || content.trim().isEmpty()) {
-                    log.warn("分类LLM返回空内容");
+    private CompletableFuture<ClassificationResult> classifyWithLLMAsync(String questionText) {
+        log.info("LLM分类请求配置 -> model: {}, baseUrl: {}, apiKeyPrefix: {}",
+                aiConfig.getModel(),
+                aiConfig.getBaseUrl(),
+                aiConfig.getApiKey() != null && aiConfig.getApiKey().length() > 8
+                        ? aiConfig.getApiKey().substring(0, 8) + "****"
+                        : "null");
+
+        Map<String, Object> requestData = new HashMap<>();
+        requestData.put("model", aiConfig.getModel());
+        requestData.put("temperature", 0.2);
+        requestData.put("max_tokens", 600);
+        requestData.put("stream", false);
+        requestData.put("response_format", Map.of("type", "json_object"));
+
+        List<Map<String, String>> messages = new ArrayList<>();
+        messages.add(Map.of("role", "system", "content", CLASSIFICATION_PROMPT));
+        messages.add(Map.of("role", "user", "content", "题目如下：\n" + questionText));
+        requestData.put("messages", messages);
+
+        // 期限在源头生效：超时即取消上游请求并归还限流许可，随后计为一次熔断失败
+        return openAIClient.createChatCompletionAsync(requestData, true, Duration.ofSeconds(llmTimeoutSeconds))
+                .thenApply(this::parseClassificationResponse)
+                .exceptionally(e -> {
+                    log.error("调用LLM分类失败", SimpleOpenAIClient.unwrap(e));
                     return null;
-                }
-
-                JsonNode resultJson = objectMapper.readTree(content);
-                String category = normalizeCategory(resultJson.path("category").asText("综合"));
-                Question.DifficultyLevel difficulty = parseDifficulty(resultJson.path("difficulty").asText("MEDIUM"));
-                double confidence = clampConfidence(resultJson.path("confidence").asDouble(0.9));
+                });
+    }
 
-                List<String> tags = new ArrayList<>();
-                JsonNode tagsNode = resultJson.path("tags");
-                if (tagsNode.isArray()) {
-                    tagsNode.forEach(node -> tags.add(node.asText()));
-                }
+    private ClassificationResult parseClassificationResponse(Response response) {
+        try (response) {
+            if (!response.isSuccessful()) {
+                String errorBody = response.body() != null ? response.body().string() : "";
+                log.error("分类LLM调用失败，状态码 {}，响应体：{}", response.code(), errorBody);
+                return null;
+            }
 
-                log.info("LLM分类成功，类别：{}，难度：{}，置信度：{}", category, difficulty, confidence);
-                return new ClassificationResult(true, category, tags, difficulty, confidence, null);
+            LlmResponseDecoder.ChatCompletion completion = responseDecoder.decode(response.body());
+            if (!completion.hasContent()) {
+                log.warn("分类LLM返回空内容");
+                return null;
             }
+
+            log.debug("分类LLM输出：{}", completion.content());
+            ClassificationResult result = fromPayload(
+                    responseDecoder.readPayload(completion.content(), ClassificationPayload.class));
+            log.info("LLM分类成功，类别：{}，难度：{}，置信度：{}",
+                    result.getCategory(), result.getDifficulty(), result.getConfidence());
+            return result;
         } catch (Exception e) {
             log.error("调用LLM分类失败", e);
             return null;
         }
     }
 
+    /**
+     * 把模型输出的分类字段转换为结果（单独分类与合并分析共用）
+     */
+    ClassificationResult fromPayload(ClassificationPayload payload) {
+        String category = normalizeCategory(payload.category());
+        Question.DifficultyLevel difficulty = parseDifficulty(payload.difficulty());
+        double confidence = clampConfidence(payload.confidence() != null ? payload.confidence() : 0.9);
+
+        List<String> tags = new ArrayList<>();
+        if (payload.tags() != null) {
+            payload.tags().stream().filter(Objects::nonNull).forEach(tags::add);
+        }
+        return new ClassificationResult(true, category, tags, difficulty, confidence, null);
+    }
+
     private String normalizeCategory(String rawCategory) {
         if (rawCategory == null || rawCategory.isBlank()) {
             return "综合";
@@ -164,13 +248,6 @@ public class AIClassificationService {
      * 基于关键词的智能分类算法
      */
     private ClassificationResult performSmartClassification(String text) {
-        // 模拟处理时间
-        try {
-            Thread.sleep(500 + random.nextInt(1000)); // 0.5-1.5秒
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-
         String lowerText = text.toLowerCase();
         
         // 分类权重计算
@@ -483,6 +560,11 @@ public class AIClassificationService {
         return Math.min(0.95, 0.7 + ratio * 0.25); // 置信度在0.7-0.95之间
     }
 
+    /**
+     * 模型输出的分类 JSON
+     */
+    public record ClassificationPayload(String category, List<String> tags, String difficulty, Double confidence) {}
+
     /**
      * AI分类结果
      */
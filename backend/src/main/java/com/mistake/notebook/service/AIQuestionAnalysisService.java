@@ -0,0 +1,127 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.config.AIConfig;
+import com.mistake.notebook.config.LlmResponseDecoder;
+import com.mistake.notebook.config.SimpleOpenAIClient;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Response;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 题目合并分析服务：一次大模型调用同时返回分类与答案解析，
+ * 相比"先分类、再解析"两次调用，题目文本只发送一次，省去一个完整往返。
+ * 任一环节失败时返回 null，由调用方回退到分类 + 解析两次调用的路径。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AIQuestionAnalysisService {
+
+    private static final String ANALYSIS_PROMPT = """
+            你是一名专业的教辅老师，同时负责题目分类与解答。阅读题目内容，严格输出 JSON：
+            {
+              "category": "数学|语文|英语|物理|化学|生物|历史|地理|政治|计算机/编程|综合",
+              "tags": ["知识点1","知识点2"],
+              "difficulty": "EASY|MEDIUM|HARD",
+              "answer": "最终答案或步骤总结",
+              "analysis": "详细解析步骤，指出思路与关键公式",
+              "confidence": 0.0-1.0
+            }
+            如果无法作答，answer写"待补充"，analysis说明原因。只返回 JSON，不要额外描述。
+            """;
+
+    private final SimpleOpenAIClient openAIClient;
+    private final AIConfig aiConfig;
+    private final LlmResponseDecoder responseDecoder;
+    private final AIClassificationService aiClassificationService;
+    private final AIAnswerService aiAnswerService;
+
+    public QuestionAnalysis analyze(String questionText, Duration timeout) {
+        return analyzeAsync(questionText, timeout).join();
+    }
+
+    public CompletableFuture<QuestionAnalysis> analyzeAsync(String questionText) {
+        return analyzeAsync(questionText, null);
+    }
+
+    /**
+     * 异步合并分析；失败、超时（取消上游请求）或分类熔断打开时以 null 正常完成
+     */
+    public CompletableFuture<QuestionAnalysis> analyzeAsync(String questionText, Duration timeout) {
+        if (questionText == null || questionText.trim().isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Map<String, Object> requestData = new HashMap<>();
+        requestData.put("model", aiConfig.getModel());
+        requestData.put("temperature", 0.2);
+        requestData.put("max_tokens", 1200);
+        requestData.put("stream", false);
+        requestData.put("response_format", Map.of("type", "json_object"));
+
+        List<Map<String, String>> messages = new ArrayList<>();
+        messages.add(Map.of("role", "system", "content", ANALYSIS_PROMPT));
+        messages.add(Map.of("role", "user", "content", "题目如下：\n" + questionText));
+        requestData.put("messages", messages);
+
+        // 与分类共用同一模型，共享分类熔断器：上游故障时两条路径同时停止调用
+        return aiClassificationService.callWithBreaker(() ->
+                openAIClient.createChatCompletionAsync(requestData, true, timeout)
+                        .thenApply(this::parseAnalysisResponse)
+                        .exceptionally(e -> {
+                            log.error("调用LLM合并分析失败", SimpleOpenAIClient.unwrap(e));
+                            return null;
+                        }));
+    }
+
+    private QuestionAnalysis parseAnalysisResponse(Response response) {
+        try (response) {
+            if (!response.isSuccessful()) {
+                String errorBody = response.body() != null ? response.body().string() : "";
+                log.error("合并分析LLM调用失败，状态码 {}，响应体：{}", response.code(), errorBody);
+                return null;
+            }
+
+            LlmResponseDecoder.ChatCompletion completion = responseDecoder.decode(response.body());
+            if (!completion.hasContent()) {
+                log.warn("合并分析LLM返回空内容");
+                return null;
+            }
+
+            AnalysisPayload payload = responseDecoder.readPayload(completion.content(), AnalysisPayload.class);
+            if (payload.category() == null || payload.answer() == null) {
+                log.warn("合并分析结果缺少必要字段：{}", completion.content());
+                return null;
+            }
+
+            AIClassificationService.ClassificationResult classification = aiClassificationService.fromPayload(
+                    new AIClassificationService.ClassificationPayload(
+                            payload.category(), payload.tags(), payload.difficulty(), payload.confidence()));
+            AIAnswerService.AnswerResult answer = aiAnswerService.fromPayload(
+                    new AIAnswerService.AnswerPayload(payload.answer(), payload.analysis(), payload.confidence()));
+            log.info("LLM合并分析成功，类别：{}，难度：{}，answer长度={}",
+                    classification.getCategory(), classification.getDifficulty(), answer.getAnswer().length());
+            return new QuestionAnalysis(classification, answer);
+        } catch (Exception e) {
+            log.error("解析LLM合并分析结果失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 模型输出的合并分析 JSON
+     */
+    public record AnalysisPayload(String category, List<String> tags, String difficulty,
+                                  String answer, String analysis, Double confidence) {}
+
+    /**
+     * 合并分析结果
+     */
+    public record QuestionAnalysis(AIClassificationService.ClassificationResult classification,
+                                   AIAnswerService.AnswerResult answer) {}
+}
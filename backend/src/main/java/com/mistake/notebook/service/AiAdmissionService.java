@@ -0,0 +1,190 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.config.AiLane;
+import com.mistake.notebook.dto.ApiResponse;
+import com.mistake.notebook.entity.AiJob;
+import com.mistake.notebook.repository.AiJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AI 任务准入控制：触发 AI 处理的接口在写入题目之前先看队列积压与预计消化时间，
+ * 超出容量时直接返回 429（Retry-After + 排队预计时长），不再让题目以 PENDING 落库后长时间卡住。
+ * 消化速度取"最近窗口内全集群实际完成数"与"本节点并发 / 平均任务耗时"中的较大者——
+ * 前者反映多节点满载时的真实吞吐，后者避免空闲一段时间后因样本太少而误判为过载。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AiAdmissionService {
+
+    private static final List<AiJob.Status> FINISHED_STATUSES = List.of(AiJob.Status.SUCCEEDED, AiJob.Status.FAILED);
+
+    private final AiJobRepository aiJobRepository;
+    private final AiJobWorker aiJobWorker;
+
+    @Value("${ai.admission.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 积压任务数上限（排队 + 执行中）
+     */
+    @Value("${ai.admission.max-backlog:2000}")
+    private long maxBacklog;
+
+    /**
+     * 预计消化时间上限（秒）：批量提交（BULK）与单题提交（USER_VISIBLE）分别设置，单题更宽松
+     */
+    @Value("${ai.admission.max-drain-seconds.bulk:600}")
+    private long maxDrainSecondsBulk;
+
+    @Value("${ai.admission.max-drain-seconds.user-visible:1200}")
+    private long maxDrainSecondsUserVisible;
+
+    /**
+     * 尚无耗时样本时假定的单个任务耗时（秒）
+     */
+    @Value("${ai.admission.initial-job-seconds:20}")
+    private double initialJobSeconds;
+
+    @Value("${ai.admission.throughput-window-seconds:300}")
+    private long throughputWindowSeconds;
+
+    /**
+     * 积压快照的刷新间隔，避免每个请求都统计一次任务表
+     */
+    @Value("${ai.admission.refresh-ms:2000}")
+    private long refreshMs;
+
+    private volatile Snapshot snapshot;
+    private final ReentrantLock sampleLock = new ReentrantLock();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * 准入判断
+     *
+     * @param jobs 本次请求将产生的 AI 任务数
+     * @param lane 任务所在通道
+     */
+    public Decision check(int jobs, AiLane lane) {
+        Snapshot current = snapshot();
+        long backlogAfter = current.backlog() + jobs;
+        long etaSeconds = (long) Math.ceil(backlogAfter / current.jobsPerSecond());
+        if (!enabled) {
+            return new Decision(true, current.backlog(), etaSeconds, 0);
+        }
+
+        long maxDrainSeconds = lane == AiLane.BULK ? maxDrainSecondsBulk : maxDrainSecondsUserVisible;
+        boolean overBacklog = backlogAfter > maxBacklog;
+        boolean overDrain = etaSeconds > maxDrainSeconds;
+        // 队列空闲时总是放行，超大批量不会永远被拒
+        if ((!overBacklog && !overDrain) || current.backlog() == 0) {
+            admitted.incrementAndGet();
+            return new Decision(true, current.backlog(), etaSeconds, 0);
+        }
+
+        // 需要先消化掉的任务数，换算成等待时间
+        long capacity = Math.min(maxBacklog, (long) (maxDrainSeconds * current.jobsPerSecond()));
+        long excess = Math.max(1, backlogAfter - capacity);
+        long retryAfter = Math.max(5, Math.min(600, (long) Math.ceil(excess / current.jobsPerSecond())));
+        rejected.incrementAndGet();
+        log.warn("AI任务准入拒绝：积压 {}，本次 {} 个（{}），预计消化 {} 秒，建议 {} 秒后重试",
+                current.backlog(), jobs, lane, etaSeconds, retryAfter);
+        return new Decision(false, current.backlog(), etaSeconds, retryAfter);
+    }
+
+    /**
+     * 积压指标（供前端展示排队预计时长与运维观察）
+     */
+    public Map<String, Object> stats() {
+        Snapshot current = snapshot();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("backlog", current.backlog());
+        stats.put("queued", current.queued());
+        stats.put("running", current.running());
+        stats.put("jobsPerMinute", Math.round(current.jobsPerSecond() * 60 * 10) / 10.0);
+        stats.put("etaSeconds", (long) Math.ceil(current.backlog() / current.jobsPerSecond()));
+        stats.put("maxBacklog", maxBacklog);
+        stats.put("admitted", admitted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("sampledAt", current.sampledAt());
+        return stats;
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null && System.currentTimeMillis() - current.sampledAtMillis() < refreshMs) {
+            return current;
+        }
+        // 统计期间其它请求沿用旧快照；用 ReentrantLock 而非 synchronized，虚拟线程等待数据库时不会钉住载体线程
+        if (current != null && !sampleLock.tryLock()) {
+            return current;
+        }
+        if (current == null) {
+            sampleLock.lock();
+        }
+        try {
+            current = snapshot;
+            if (current != null && System.currentTimeMillis() - current.sampledAtMillis() < refreshMs) {
+                return current;
+            }
+            current = sample();
+            snapshot = current;
+            return current;
+        } finally {
+            sampleLock.unlock();
+        }
+    }
+
+    private Snapshot sample() {
+        LocalDateTime now = LocalDateTime.now();
+        long queued = aiJobRepository.countByStatus(AiJob.Status.QUEUED);
+        long running = aiJobRepository.countByStatus(AiJob.Status.RUNNING);
+        long finished = aiJobRepository.countByStatusInAndUpdatedAtAfter(FINISHED_STATUSES,
+                now.minusSeconds(throughputWindowSeconds));
+
+        double observed = (double) finished / throughputWindowSeconds;
+        double jobSeconds = aiJobWorker.getAverageJobMillis() > 0
+                ? aiJobWorker.getAverageJobMillis() / 1000.0
+                : initialJobSeconds;
+        double localCapacity = aiJobWorker.isEnabled() ? aiJobWorker.getConcurrency() / Math.max(0.1, jobSeconds) : 0;
+        double jobsPerSecond = Math.max(Math.max(observed, localCapacity), 0.01);
+        return new Snapshot(queued, running, queued + running, jobsPerSecond, now, System.currentTimeMillis());
+    }
+
+    private record Snapshot(long queued, long running, long backlog, double jobsPerSecond,
+                            LocalDateTime sampledAt, long sampledAtMillis) {
+    }
+
+    /**
+     * 准入结果
+     */
+    public record Decision(boolean admitted, long backlog, long etaSeconds, long retryAfterSeconds) {
+
+        /**
+         * 拒绝时的 429 响应：Retry-After 为建议重试秒数，X-AI-Queue-ETA 为当前积压的预计消化秒数
+         */
+        public <T> ResponseEntity<ApiResponse<T>> toRejection() {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .header("X-AI-Queue-ETA", String.valueOf(etaSeconds))
+                    .body(ApiResponse.error(String.format("AI解析排队较多（%d 个任务，预计 %d 秒），请 %d 秒后再试",
+                            backlog, etaSeconds, retryAfterSeconds), "AI_OVERLOADED"));
+        }
+    }
+}
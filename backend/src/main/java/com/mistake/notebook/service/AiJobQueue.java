@@ -0,0 +1,271 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.config.AiClient;
+import com.mistake.notebook.config.AiLane;
+import com.mistake.notebook.entity.AiJob;
+import com.mistake.notebook.repository.AiJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * 数据库 AI 任务队列：入队、领取、续租、完成与失败重试。
+ * 入队与业务数据写入同一事务，进程重启不会丢任务；队列深度只受数据库容量限制，不再占用内存。
+ * 语义为至少执行一次：执行者失联后租约过期，任务会被重新领取，任务处理需保证幂等。
+ * 多个节点可同时消费同一队列：默认用 FOR UPDATE SKIP LOCKED 领取（MySQL 8+），
+ * 也可切换为逐行条件更新（claim-strategy: conditional-update），两种方式都保证一个任务同一时刻只归一个节点。
+ * 同一通道内按提交方公平领取：每次领取的名额在有积压的客户端之间轮转分配（在途少的先分），
+ * 单个客户端的在途任务数不超过 max-in-flight-per-client，整页批量提交不会挡住其他学生的单题。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AiJobQueue {
+
+    private static final List<AiJob.Status> ACTIVE_STATUSES = List.of(AiJob.Status.QUEUED, AiJob.Status.RUNNING);
+    private static final List<AiJob.Status> FINISHED_STATUSES = List.of(AiJob.Status.SUCCEEDED, AiJob.Status.FAILED);
+
+    private final AiJobRepository aiJobRepository;
+
+    /**
+     * 当前节点标识（领取者），同一进程内固定
+     */
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName()
+            + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * skip-locked：SELECT ... FOR UPDATE SKIP LOCKED；conditional-update：逐行 UPDATE ... WHERE 仍可领取
+     */
+    @Value("${ai.jobs.claim-strategy:skip-locked}")
+    private String claimStrategy;
+
+    @Value("${ai.jobs.visibility-timeout-seconds:600}")
+    private long visibilityTimeoutSeconds;
+
+    @Value("${ai.jobs.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${ai.jobs.retry-backoff-seconds:10}")
+    private long retryBackoffSeconds;
+
+    @Value("${ai.jobs.retention-days:7}")
+    private long retentionDays;
+
+    /**
+     * 单个客户端在全集群同时执行的任务上限（多节点并发领取时为近似上限）
+     */
+    @Value("${ai.jobs.fair-share.max-in-flight-per-client:4}")
+    private int maxInFlightPerClient;
+
+    /**
+     * 每次领取最多考察的客户端数（按最早可领取时间）
+     */
+    @Value("${ai.jobs.fair-share.max-clients-per-claim:100}")
+    private int maxClientsPerClaim;
+
+    /**
+     * 按指定优先级通道入队；同一对象已有排队/执行中的任务时不重复入队
+     * （排队中的任务若在更低优先级通道则提升到本通道），返回是否新建了任务
+     */
+    @Transactional
+    public boolean enqueue(AiJob.JobType type, Long targetId, AiLane lane) {
+        if (aiJobRepository.existsByTypeAndTargetIdAndStatusIn(type, targetId, ACTIVE_STATUSES)) {
+            List<AiLane> lowerLanes = Stream.of(AiLane.values()).filter(l -> l.ordinal() > lane.ordinal()).toList();
+            if (!lowerLanes.isEmpty()
+                    && aiJobRepository.promoteLane(type, targetId, lane, lowerLanes, AiJob.Status.QUEUED) > 0) {
+                log.info("AI任务已在队列中，提升到 {} 通道：{} {}", lane, type, targetId);
+            } else {
+                log.debug("AI任务已在队列中，跳过入队：{} {}", type, targetId);
+            }
+            return false;
+        }
+        AiJob job = new AiJob();
+        job.setType(type);
+        job.setTargetId(targetId);
+        job.setLane(lane);
+        job.setClientId(AiClient.current());
+        job.setStatus(AiJob.Status.QUEUED);
+        job.setAttempts(0);
+        job.setAvailableAt(LocalDateTime.now());
+        aiJobRepository.save(job);
+        return true;
+    }
+
+    /**
+     * 从指定通道领取最多 limit 个可执行任务，名额在客户端之间公平分配，领取后在可见性超时内归当前节点所有
+     */
+    @Transactional
+    public List<AiJob> claim(AiLane lane, int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime until = now.plusSeconds(visibilityTimeoutSeconds);
+
+        List<Long> claimedIds = new ArrayList<>();
+        allot(lane, limit, now).forEach((clientId, count) ->
+                claimedIds.addAll(claimFor(lane, clientId, count, now, until)));
+        if (claimedIds.isEmpty()) {
+            return List.of();
+        }
+
+        List<AiJob> jobs = aiJobRepository.findAllById(claimedIds);
+        for (AiJob job : jobs) {
+            if (job.getAttempts() > 1) {
+                log.info("AI任务 {} 第 {} 次领取（上次失败或原执行者租约过期）", job.getId(), job.getAttempts());
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * 轮转分配本次领取的名额：每轮给每个有积压的客户端一个名额，直到名额用完、积压取完或达到在途上限。
+     * 在途任务少的客户端排在前面，同为零在途时按最早可领取时间
+     */
+    private Map<String, Integer> allot(AiLane lane, int limit, LocalDateTime now) {
+        List<Object[]> backlog = aiJobRepository.findClaimableBacklog(lane.name(), now, maxClientsPerClaim);
+        if (backlog.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, Long> inFlight = new HashMap<>();
+        for (Object[] row : aiJobRepository.countInFlightByClient(AiJob.Status.RUNNING, now)) {
+            inFlight.put((String) row[0], ((Number) row[1]).longValue());
+        }
+        Map<String, Long> pending = new LinkedHashMap<>();
+        for (Object[] row : backlog) {
+            pending.put((String) row[0], ((Number) row[1]).longValue());
+        }
+        List<String> clients = new ArrayList<>(pending.keySet());
+        clients.sort(Comparator.comparingLong(client -> inFlight.getOrDefault(client, 0L)));
+
+        Map<String, Integer> allotment = new LinkedHashMap<>();
+        int left = limit;
+        boolean progress = true;
+        while (left > 0 && progress) {
+            progress = false;
+            for (String client : clients) {
+                if (left == 0) {
+                    break;
+                }
+                int given = allotment.getOrDefault(client, 0);
+                if (given >= pending.get(client) || inFlight.getOrDefault(client, 0L) + given >= maxInFlightPerClient) {
+                    continue;
+                }
+                allotment.put(client, given + 1);
+                left--;
+                progress = true;
+            }
+        }
+        return allotment;
+    }
+
+    private List<Long> claimFor(AiLane lane, String clientId, int count, LocalDateTime now, LocalDateTime until) {
+        if ("conditional-update".equalsIgnoreCase(claimStrategy)) {
+            List<Long> claimedIds = new ArrayList<>();
+            for (AiJob candidate : aiJobRepository.findClaimable(lane, clientId, now, PageRequest.of(0, count))) {
+                if (aiJobRepository.tryClaim(candidate.getId(), nodeId, until, now,
+                        AiJob.Status.QUEUED, AiJob.Status.RUNNING) == 1) {
+                    claimedIds.add(candidate.getId());
+                }
+            }
+            return claimedIds;
+        }
+        List<Long> claimedIds = aiJobRepository.lockClaimableIds(lane.name(), clientId, now, count);
+        if (!claimedIds.isEmpty()) {
+            aiJobRepository.markClaimed(claimedIds, nodeId, until, now, AiJob.Status.RUNNING);
+        }
+        return claimedIds;
+    }
+
+    /**
+     * 为仍在执行的任务续租，避免长耗时任务被误判为失联
+     */
+    @Transactional
+    public void extendLeases(Collection<Long> jobIds) {
+        if (jobIds.isEmpty()) {
+            return;
+        }
+        aiJobRepository.extendLeases(jobIds, nodeId,
+                LocalDateTime.now().plusSeconds(visibilityTimeoutSeconds), AiJob.Status.RUNNING);
+    }
+
+    /**
+     * 标记任务成功；租约已被其它节点接管时不改动（由接管者负责回写）
+     */
+    @Transactional
+    public void complete(Long jobId) {
+        aiJobRepository.findOwnedForUpdate(jobId, nodeId, AiJob.Status.RUNNING).ifPresentOrElse(job -> {
+            job.setStatus(AiJob.Status.SUCCEEDED);
+            job.setLockedBy(null);
+            job.setLockedUntil(null);
+            job.setLastError(null);
+            aiJobRepository.save(job);
+        }, () -> log.warn("AI任务 {} 的租约已不属于本节点，忽略完成回写", jobId));
+    }
+
+    /**
+     * 记录任务失败：未超过最大次数时按指数退避重新排队并返回 true，否则标记为最终失败并返回 false。
+     * 租约已被其它节点接管时不改动并返回 true（任务仍在执行，不应判定为最终失败）
+     */
+    @Transactional
+    public boolean fail(Long jobId, String error) {
+        return aiJobRepository.findOwnedForUpdate(jobId, nodeId, AiJob.Status.RUNNING).map(job -> {
+            job.setLastError(error);
+            job.setLockedBy(null);
+            job.setLockedUntil(null);
+            boolean retry = job.getAttempts() < maxAttempts;
+            if (retry) {
+                long backoff = retryBackoffSeconds << Math.min(job.getAttempts() - 1, 10);
+                job.setStatus(AiJob.Status.QUEUED);
+                job.setAvailableAt(LocalDateTime.now().plusSeconds(backoff));
+                log.warn("AI任务 {} 第 {} 次执行失败，{} 秒后重试：{}", jobId, job.getAttempts(), backoff, error);
+            } else {
+                job.setStatus(AiJob.Status.FAILED);
+                log.error("AI任务 {} 已失败 {} 次，放弃重试：{}", jobId, job.getAttempts(), error);
+            }
+            aiJobRepository.save(job);
+            return retry;
+        }).orElseGet(() -> {
+            log.warn("AI任务 {} 的租约已不属于本节点，忽略失败回写：{}", jobId, error);
+            return true;
+        });
+    }
+
+    /**
+     * 清理保留期之外的已结束任务
+     */
+    @Transactional
+    public int purgeFinished() {
+        return aiJobRepository.deleteByStatusInAndUpdatedAtBefore(FINISHED_STATUSES,
+                LocalDateTime.now().minusDays(retentionDays));
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (AiJob.Status status : AiJob.Status.values()) {
+            stats.put(status.name().toLowerCase(), aiJobRepository.countByStatus(status));
+        }
+        Map<String, Object> queuedByLane = new LinkedHashMap<>();
+        for (AiLane lane : List.of(AiLane.USER_VISIBLE, AiLane.BULK)) {
+            queuedByLane.put(lane.name().toLowerCase(), aiJobRepository.countByLaneAndStatus(lane, AiJob.Status.QUEUED));
+        }
+        stats.put("queuedByLane", queuedByLane);
+        return stats;
+    }
+}
@@ -0,0 +1,277 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.config.AiClient;
+import com.mistake.notebook.config.AiLane;
+import com.mistake.notebook.entity.AiJob;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI 任务执行器：定时从数据库队列领取任务，交给 aiJobExecutor 执行（平台线程池或虚拟线程，见 AsyncConfig）。
+ * 每次只领取空闲槽位数量的任务，线程池永远不会积压或拒绝；执行中的任务定期续租，
+ * 抛出异常的任务按退避重试，重试耗尽后把对应题目/上传任务标记为失败。
+ * 槽位按优先级通道划分：USER_VISIBLE 与 BULK 各有预留槽位（BULK 至少一个，不会饿死），
+ * 其余为共享槽位，按优先级先分给 USER_VISIBLE；任务在所属通道的上下文中执行，出站限流器据此排队。
+ * 任务同时在所属客户端的上下文中执行，执行中派生的后续任务（识别完成后的解析）仍计入原客户端的公平份额。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AiJobWorker {
+
+    /**
+     * 持久化任务所在的通道（INTERACTIVE 为进程内的对话类工作，不进数据库队列）
+     */
+    private static final List<AiLane> JOB_LANES = List.of(AiLane.USER_VISIBLE, AiLane.BULK);
+
+    private final AiJobQueue aiJobQueue;
+    private final AsyncAiProcessingService asyncAiProcessingService;
+    private final UploadJobService uploadJobService;
+    private final QuestionService questionService;
+    private final Executor aiJobExecutor;
+
+    @Value("${ai.jobs.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.jobs.concurrency:8}")
+    private int concurrency;
+
+    @Value("${ai.jobs.visibility-timeout-seconds:600}")
+    private long visibilityTimeoutSeconds;
+
+    /**
+     * 各通道预留槽位（只能由该通道使用）
+     */
+    @Value("${ai.jobs.reserved.user-visible:2}")
+    private int reservedUserVisible;
+
+    @Value("${ai.jobs.reserved.bulk:1}")
+    private int reservedBulk;
+
+    private volatile boolean stopping;
+    private final Map<Long, AiLane> running = new ConcurrentHashMap<>();
+    private volatile long lastHeartbeat = System.currentTimeMillis();
+
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * 单个任务执行耗时的指数滑动平均（毫秒），用于估算本节点处理能力；尚无样本时为 0
+     */
+    private volatile double averageJobMillis;
+
+    @PostConstruct
+    public void init() {
+        log.info("AI任务执行器就绪：节点 {}，并发 {}（预留：用户可见 {}，批量 {}）",
+                aiJobQueue.getNodeId(), concurrency, reserved(AiLane.USER_VISIBLE), reserved(AiLane.BULK));
+    }
+
+    /**
+     * 停机时不再领取新任务，由 aiJobExecutor 等待执行中的任务结束；
+     * 未结束的任务在租约过期后由其它节点（或重启后的本节点）重新领取
+     */
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        if (!running.isEmpty()) {
+            log.info("AI任务执行器停止领取，{} 个任务执行中", running.size());
+        }
+    }
+
+    /**
+     * 轮询：续租执行中的任务，先填满各通道的预留槽位，再按优先级分配共享槽位
+     */
+    @Scheduled(fixedDelayString = "${ai.jobs.poll-interval-ms:1000}", initialDelayString = "${ai.jobs.initial-delay-ms:5000}")
+    public void poll() {
+        if (!enabled || stopping) {
+            return;
+        }
+        try {
+            heartbeat();
+
+            for (AiLane lane : JOB_LANES) {
+                int free = reserved(lane) - runningIn(lane);
+                if (free > 0) {
+                    submit(aiJobQueue.claim(lane, free));
+                }
+            }
+            for (AiLane lane : JOB_LANES) {
+                int sharedFree = sharedSlots() - sharedInUse();
+                if (sharedFree <= 0) {
+                    break;
+                }
+                submit(aiJobQueue.claim(lane, sharedFree));
+            }
+        } catch (Exception e) {
+            log.error("AI任务轮询失败", e);
+        }
+    }
+
+    private void submit(List<AiJob> jobs) {
+        for (AiJob job : jobs) {
+            AiLane lane = job.getLane() != null ? job.getLane() : AiLane.USER_VISIBLE;
+            String clientId = job.getClientId() != null ? job.getClientId() : AiClient.SYSTEM;
+            running.put(job.getId(), lane);
+            claimed.incrementAndGet();
+            try {
+                aiJobExecutor.execute(() -> AiLane.runIn(lane, () -> AiClient.runIn(clientId, () -> run(job))));
+            } catch (RuntimeException e) {
+                // 执行器已关闭或拒绝：释放槽位，任务在租约过期后重新领取
+                running.remove(job.getId());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 通道预留槽位；预留总数不超过总并发
+     */
+    private int reserved(AiLane lane) {
+        int userVisible = Math.min(Math.max(reservedUserVisible, 0), concurrency);
+        return switch (lane) {
+            case USER_VISIBLE -> userVisible;
+            case BULK -> Math.min(Math.max(reservedBulk, 0), concurrency - userVisible);
+            default -> 0;
+        };
+    }
+
+    private int sharedSlots() {
+        return concurrency - reserved(AiLane.USER_VISIBLE) - reserved(AiLane.BULK);
+    }
+
+    private int runningIn(AiLane lane) {
+        return (int) running.values().stream().filter(l -> l == lane).count();
+    }
+
+    /**
+     * 超出本通道预留部分的执行中任务占用共享槽位
+     */
+    private int sharedInUse() {
+        int used = 0;
+        for (AiLane lane : JOB_LANES) {
+            used += Math.max(0, runningIn(lane) - reserved(lane));
+        }
+        return used;
+    }
+
+    /**
+     * 定期清理保留期之外的已结束任务
+     */
+    @Scheduled(fixedDelayString = "${ai.jobs.purge-interval-ms:3600000}", initialDelayString = "${ai.jobs.purge-interval-ms:3600000}")
+    public void purge() {
+        try {
+            int purged = aiJobQueue.purgeFinished();
+            if (purged > 0) {
+                log.info("已清理 {} 个过期AI任务记录", purged);
+            }
+        } catch (Exception e) {
+            log.warn("清理AI任务记录失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 每过三分之一个可见性超时续租一次
+     */
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        if (running.isEmpty() || now - lastHeartbeat < TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 3) {
+            return;
+        }
+        aiJobQueue.extendLeases(Set.copyOf(running.keySet()));
+        lastHeartbeat = now;
+    }
+
+    private void run(AiJob job) {
+        long start = System.currentTimeMillis();
+        try {
+            dispatch(job);
+            aiJobQueue.complete(job.getId());
+            succeeded.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("AI任务 {}（{} {}）执行异常", job.getId(), job.getType(), job.getTargetId(), e);
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            try {
+                if (!aiJobQueue.fail(job.getId(), error)) {
+                    giveUp(job, error);
+                }
+            } catch (Exception recordError) {
+                log.error("记录AI任务 {} 失败状态异常，等待租约过期后重试", job.getId(), recordError);
+            }
+        } finally {
+            recordDuration(System.currentTimeMillis() - start);
+            running.remove(job.getId());
+        }
+    }
+
+    private void recordDuration(long millis) {
+        double average = averageJobMillis;
+        averageJobMillis = average == 0 ? millis : average * 0.9 + millis * 0.1;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public double getAverageJobMillis() {
+        return averageJobMillis;
+    }
+
+    private void dispatch(AiJob job) {
+        switch (job.getType()) {
+            case QUESTION_ANALYSIS -> asyncAiProcessingService.processQuestion(job.getTargetId());
+            case UPLOAD_RECOGNITION -> uploadJobService.recognize(job.getTargetId());
+            default -> throw new IllegalStateException("未知的AI任务类型：" + job.getType());
+        }
+    }
+
+    /**
+     * 重试耗尽：把业务对象标记为失败，前端可手动重试
+     */
+    private void giveUp(AiJob job, String error) {
+        switch (job.getType()) {
+            case QUESTION_ANALYSIS -> questionService.markAiFailed(job.getTargetId(), "AI解析多次失败：" + error);
+            case UPLOAD_RECOGNITION -> uploadJobService.markFailed(job.getTargetId(), "识别多次失败：" + error);
+            default -> { }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("nodeId", aiJobQueue.getNodeId());
+        stats.put("concurrency", concurrency);
+        stats.put("running", running.size());
+        Map<String, Object> lanes = new LinkedHashMap<>();
+        for (AiLane lane : JOB_LANES) {
+            lanes.put(lane.name().toLowerCase(), Map.of("running", runningIn(lane), "reserved", reserved(lane)));
+        }
+        stats.put("lanes", lanes);
+        stats.put("sharedSlots", sharedSlots());
+        stats.put("averageJobMillis", Math.round(averageJobMillis));
+        stats.put("claimed", claimed.get());
+        stats.put("succeeded", succeeded.get());
+        stats.put("failed", failed.get());
+        stats.put("queue", aiJobQueue.stats());
+        return stats;
+    }
+}
@@ -0,0 +1,105 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.config.AiLane;
+import com.mistake.notebook.entity.AiJob;
+import com.mistake.notebook.entity.Question;
+import com.mistake.notebook.repository.QuestionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 孤儿题目恢复扫描：找出 PENDING/PROCESSING 状态、长时间未更新且队列中没有未完成任务的题目重新入队。
+ * 覆盖进程在处理中途退出、任务已失败但题目状态未回写、任务记录缺失（如迁移前的历史数据）等情况。
+ * 每轮最多恢复 max-per-sweep 道题目，大批节点同时重启时按扫描间隔分批放回队列，不会瞬间压垮大模型。
+ * 恢复的任务进入 BULK 通道，不与用户正在等待的任务抢占槽位。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AiRecoverySweeper {
+
+    private static final List<Question.AiStatus> RECOVERABLE_STATUSES =
+            List.of(Question.AiStatus.PENDING, Question.AiStatus.PROCESSING);
+    private static final List<AiJob.Status> ACTIVE_JOB_STATUSES = List.of(AiJob.Status.QUEUED, AiJob.Status.RUNNING);
+
+    private final QuestionRepository questionRepository;
+    private final AiJobQueue aiJobQueue;
+
+    @Value("${ai.recovery.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 停留超过该时长才视为孤儿（应大于 processing-lease-seconds，避免与正常处理抢占）
+     */
+    @Value("${ai.recovery.stale-after-seconds:900}")
+    private long staleAfterSeconds;
+
+    @Value("${ai.recovery.max-per-sweep:20}")
+    private int maxPerSweep;
+
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong recoveredPending = new AtomicLong();
+    private final AtomicLong recoveredProcessing = new AtomicLong();
+    private volatile int lastRecovered;
+    private volatile LocalDateTime lastSweepAt;
+
+    /**
+     * 启动后首次扫描延迟一小段时间，之后按固定间隔扫描
+     */
+    @Scheduled(fixedDelayString = "${ai.recovery.interval-ms:60000}", initialDelayString = "${ai.recovery.initial-delay-ms:15000}")
+    public void sweep() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minusSeconds(staleAfterSeconds);
+            List<Question> stale = questionRepository.findOrphanedAiQuestions(RECOVERABLE_STATUSES, cutoff,
+                    AiJob.JobType.QUESTION_ANALYSIS, ACTIVE_JOB_STATUSES, PageRequest.of(0, maxPerSweep));
+
+            int recovered = 0;
+            for (Question question : stale) {
+                if (aiJobQueue.enqueue(AiJob.JobType.QUESTION_ANALYSIS, question.getId(), AiLane.BULK)) {
+                    recovered++;
+                    if (question.getAiStatus() == Question.AiStatus.PROCESSING) {
+                        recoveredProcessing.incrementAndGet();
+                    } else {
+                        recoveredPending.incrementAndGet();
+                    }
+                }
+            }
+
+            sweeps.incrementAndGet();
+            scanned.addAndGet(stale.size());
+            lastRecovered = recovered;
+            lastSweepAt = LocalDateTime.now();
+            if (recovered > 0) {
+                log.warn("恢复扫描：{} 道题目长时间停留在待解析/处理中，已重新入队 {} 道", stale.size(), recovered);
+            }
+        } catch (Exception e) {
+            log.error("AI恢复扫描失败", e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sweeps", sweeps.get());
+        stats.put("scanned", scanned.get());
+        stats.put("recoveredPending", recoveredPending.get());
+        stats.put("recoveredProcessing", recoveredProcessing.get());
+        stats.put("lastRecovered", lastRecovered);
+        stats.put("lastSweepAt", lastSweepAt);
+        return stats;
+    }
+}
@@ -1,14 +1,21 @@
 package com.mistake.notebook.service;
 
+import com.mistake.notebook.config.SimpleOpenAIClient;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
 /**
- * AI 后台异步处理：题目分类 + 答案解析。
- * 上传保存接口先把题目落库为 PENDING 并立即返回，由本服务在线程池中完成耗时的 AI 调用，
- * 完成后更新题目状态，前端通过轮询 /questions/pending 感知进度。
+ * AI 后台处理：题目分类 + 答案解析。
+ * 上传保存接口先把题目落库为 PENDING 并同事务写入 AI 任务后立即返回，由 AiJobWorker 领取任务后调用本服务
+ * 完成耗时的 AI 调用，完成后更新题目状态；状态变化经 QuestionEventHub（SSE /questions/events）推送给前端，
+ * 并写入增量同步变更序列（/questions/changes）。
+ * 任务至少执行一次：处理前以比较并交换领取题目（PENDING → PROCESSING），重复投递或其它节点已领取的题目会被跳过。
  */
 @Service
 @RequiredArgsConstructor
@@ -18,11 +25,25 @@ public class AsyncAiProcessingService {
     private final QuestionService questionService;
     private final AIClassificationService aiClassificationService;
     private final AIAnswerService aiAnswerService;
+    private final AIQuestionAnalysisService aiQuestionAnalysisService;
+
+    /**
+     * combined：一次调用同时完成分类与解析（失败时回退两次调用）；separate：分类、解析分两次调用
+     */
+    @Value("${ai.processing.mode:combined}")
+    private String processingMode;
 
     /**
-     * 异步处理单道题目的 AI 分类与解析
+     * 解析（及合并分析）调用的整体期限（含排队等待许可），到期取消上游请求；分类调用的期限见 ai.classification.llm-timeout-seconds
+     */
+    @Value("${ai.processing.answer-timeout-seconds:120}")
+    private long answerTimeoutSeconds;
+
+    /**
+     * 处理单道题目的 AI 分类与解析（由 AI 任务执行器调用）。
+     * 模型调用失败以题目 FAILED 状态正常结束；数据库等基础设施异常先归还处理权再向上抛出，由任务队列退避重试，
+     * 重试耗尽后由 AiJobWorker 置为 FAILED。
      */
-    @Async("aiTaskExecutor")
     public void processQuestion(Long questionId) {
         if (questionId == null) {
             return;
@@ -33,28 +54,59 @@ public class AsyncAiProcessingService {
             return;
         }
 
+        boolean claimed = false;
         try {
-            questionService.markAiProcessing(questionId);
-
-            AIClassificationService.ClassificationResult classification = null;
-            try {
-                classification = aiClassificationService.classifyQuestion(content);
-            } catch (Exception e) {
-                log.error("题目 {} AI分类异常", questionId, e);
+            if (!questionService.markAiProcessing(questionId)) {
+                log.info("题目 {} 已完成、已删除或正由其它任务处理，跳过", questionId);
+                return;
             }
+            claimed = true;
 
-            AIAnswerService.AnswerResult answer;
-            try {
-                answer = aiAnswerService.generateAnswer(content);
-            } catch (Exception e) {
-                log.error("题目 {} AI答案生成异常", questionId, e);
-                answer = AIAnswerService.AnswerResult.empty("AI答案生成异常：" + e.getMessage());
+            if ("combined".equalsIgnoreCase(processingMode)) {
+                AIQuestionAnalysisService.QuestionAnalysis analysis = null;
+                try {
+                    analysis = aiQuestionAnalysisService.analyze(content, Duration.ofSeconds(answerTimeoutSeconds));
+                } catch (Exception e) {
+                    log.error("题目 {} AI合并分析异常", questionId, e);
+                }
+                if (analysis != null) {
+                    questionService.applyAiResult(questionId, analysis.classification(), analysis.answer());
+                    return;
+                }
+                log.warn("题目 {} 合并分析失败，回退为分类 + 解析两次调用", questionId);
             }
 
-            questionService.applyAiResult(questionId, classification, answer);
-        } catch (Exception e) {
-            log.error("题目 {} 异步AI处理失败", questionId, e);
-            questionService.markAiFailed(questionId, e.getMessage());
+            // 分类与解析互不依赖，同时发起，总耗时取两者较慢者；超时在源头生效（取消上游请求、归还许可），各自兜底
+            CompletableFuture<AIClassificationService.ClassificationResult> classificationStage =
+                    aiClassificationService.classifyQuestionAsync(content)
+                            .exceptionally(e -> {
+                                log.error("题目 {} AI分类异常", questionId, SimpleOpenAIClient.unwrap(e));
+                                return null;
+                            });
+
+            CompletableFuture<AIAnswerService.AnswerResult> answerStage =
+                    aiAnswerService.generateAnswerAsync(content, Duration.ofSeconds(answerTimeoutSeconds))
+                            .exceptionally(e -> {
+                                Throwable cause = SimpleOpenAIClient.unwrap(e);
+                                log.error("题目 {} AI答案生成异常", questionId, cause);
+                                return AIAnswerService.AnswerResult.empty(cause instanceof TimeoutException
+                                        ? "AI答案生成超时"
+                                        : "AI答案生成异常：" + cause.getMessage());
+                            });
+
+            CompletableFuture.allOf(classificationStage, answerStage).join();
+            questionService.applyAiResult(questionId, classificationStage.join(), answerStage.join());
+        } catch (RuntimeException e) {
+            log.error("题目 {} 后台AI处理失败", questionId, e);
+            if (claimed) {
+                // 归还处理权，队列退避重试时才能重新领取；否则重试会因处理租约未过期而被跳过并误记为成功
+                try {
+                    questionService.releaseAiProcessing(questionId);
+                } catch (RuntimeException releaseError) {
+                    log.error("题目 {} 归还AI处理权失败，等待处理租约过期", questionId, releaseError);
+                }
+            }
+            throw e;
         }
     }
 }
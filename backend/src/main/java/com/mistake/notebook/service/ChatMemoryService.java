@@ -3,6 +3,7 @@ package com.mistake.notebook.service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mistake.notebook.config.AIConfig;
+import com.mistake.notebook.config.LlmResponseDecoder;
 import com.mistake.notebook.config.SimpleOpenAIClient;
 import com.mistake.notebook.entity.ChatMemory;
 import com.mistake.notebook.repository.ChatMemoryRepository;
@@ -51,6 +52,7 @@ public class ChatMemoryService {
     private final SimpleOpenAIClient openAIClient;
     private final AIConfig aiConfig;
     private final ObjectMapper objectMapper;
+    private final LlmResponseDecoder responseDecoder;
 
     public MemoryStatus getStatus(String clientId) {
         if (clientId == null || clientId.isBlank()) {
@@ -410,21 +412,15 @@ public class ChatMemoryService {
             requestData.put("messages", chatMessages);
 
             try (Response response = openAIClient.createChatCompletion(requestData)) {
-                String body = response.body() != null ? response.body().string() : "";
-                if (!response.isSuccessful() || body.isBlank()) {
+                if (!response.isSuccessful()) {
                     log.warn("记忆总结LLM失败，状态码 {}", response.code());
                     return null;
                 }
-                JsonNode root = objectMapper.readTree(body);
-                JsonNode choices = root.path("choices");
-                if (!choices.isArray() || choices.isEmpty()) {
+                LlmResponseDecoder.ChatCompletion completion = responseDecoder.decode(response.body());
+                if (!completion.hasContent()) {
                     return null;
                 }
-                String content = choices.get(0).path("message").path("content").asText("");
-                if (content.isBlank()) {
-                    return null;
-                }
-                return parseExtractedMemory(objectMapper.readTree(content));
+                return parseExtractedMemory(objectMapper.readTree(completion.content()));
             }
         } catch (Exception e) {
             log.error("记忆总结LLM异常", e);
@@ -0,0 +1,371 @@
+package com.mistake.notebook.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 视觉推理前的图片预处理：
+ * 子采样解码 → 长边缩放到上限 → 按 EXIF 方向摆正 → 灰度化 + 对比度拉伸 → JPEG 重新编码。
+ * 手机拍的作业照片动辄数 MB，模型并不需要这么高的分辨率，压缩后上传带宽与推理耗时都会明显下降；
+ * 解码时就按上限跳采样，4000x3000 的照片不会先在内存中展开成全尺寸位图。
+ * 无法解码（如 webp）或处理后反而更大时原样返回。
+ */
+@Component
+@Slf4j
+public class ImagePreprocessor {
+
+    @Value("${ai.image-preprocess.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.image-preprocess.max-long-edge:1600}")
+    private int maxLongEdge;
+
+    @Value("${ai.image-preprocess.grayscale:true}")
+    private boolean grayscale;
+
+    @Value("${ai.image-preprocess.jpeg-quality:0.85}")
+    private float jpegQuality;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong originalBytes = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public PreparedImage prepare(byte[] imageBytes, String contentType) {
+        if (!enabled || imageBytes == null || imageBytes.length == 0) {
+            return PreparedImage.original(imageBytes, contentType);
+        }
+        return prepare(imageBytes, contentType, decode(imageBytes));
+    }
+
+    /**
+     * 使用已解码的图片预处理（调用方已为感知哈希解码过时复用，不再重复解码）；decoded 为 null 表示无法解码，原样返回
+     */
+    public PreparedImage prepare(byte[] imageBytes, String contentType, DecodedImage decoded) {
+        if (!enabled || imageBytes == null || imageBytes.length == 0) {
+            return PreparedImage.original(imageBytes, contentType);
+        }
+        if (decoded == null) {
+            skipped.incrementAndGet();
+            return PreparedImage.original(imageBytes, contentType);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            // 先缩放再摆正，旋转只作用于缩放后的小图
+            BufferedImage image = applyOrientation(resize(decoded.image()), decoded.orientation());
+            image = grayscale ? normalizeGray(image) : toRgb(image);
+            byte[] jpeg = encodeJpeg(image);
+
+            if (jpeg.length >= imageBytes.length) {
+                skipped.incrementAndGet();
+                log.debug("图片预处理后未变小（{} -> {} bytes），使用原图", imageBytes.length, jpeg.length);
+                return PreparedImage.original(imageBytes, contentType);
+            }
+
+            processed.incrementAndGet();
+            originalBytes.addAndGet(imageBytes.length);
+            outputBytes.addAndGet(jpeg.length);
+            log.info("图片预处理完成：{} -> {} bytes（节省 {}%），{}x{}，耗时 {} 毫秒",
+                    imageBytes.length, jpeg.length, 100 - jpeg.length * 100L / imageBytes.length,
+                    image.getWidth(), image.getHeight(), System.currentTimeMillis() - start);
+            return new PreparedImage(jpeg, "image/jpeg", imageBytes.length);
+        } catch (IOException | RuntimeException e) {
+            skipped.incrementAndGet();
+            log.warn("图片预处理失败，使用原图：{}", e.getMessage());
+            return PreparedImage.original(imageBytes, contentType);
+        }
+    }
+
+    /**
+     * 子采样解码：先读图片头得到原图尺寸，按 长边 / maxLongEdge 取整数步长跳采样，
+     * 解码结果长边不小于上限（随后由 resize 精确缩放）。无法解码（如 webp）时返回 null
+     */
+    public DecodedImage decode(byte[] imageBytes) {
+        if (imageBytes == null || imageBytes.length == 0) {
+            return null;
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / Math.max(1, maxLongEdge));
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return new DecodedImage(reader.read(0, param), width, height, readExifOrientation(imageBytes));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("图片解码失败：{}", e.getMessage());
+            return null;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("processed", processed.get());
+        stats.put("skipped", skipped.get());
+        stats.put("originalBytes", originalBytes.get());
+        stats.put("outputBytes", outputBytes.get());
+        stats.put("bytesSaved", originalBytes.get() - outputBytes.get());
+        return stats;
+    }
+
+    /**
+     * 长边超过上限时缩放；缩小倍数较大时逐级减半，避免一次性双线性缩放造成的锯齿
+     */
+    private BufferedImage resize(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int longEdge = Math.max(width, height);
+        if (longEdge <= maxLongEdge) {
+            return image;
+        }
+        double scale = (double) maxLongEdge / longEdge;
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        BufferedImage current = image;
+        int currentWidth = width;
+        int currentHeight = height;
+        do {
+            currentWidth = Math.max(targetWidth, currentWidth / 2);
+            currentHeight = Math.max(targetHeight, currentHeight / 2);
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (currentWidth != targetWidth || currentHeight != targetHeight);
+        return current;
+    }
+
+    /**
+     * 灰度化并按 1% / 99% 分位做线性对比度拉伸，让浅色铅笔字、阴影下的字迹更清晰
+     */
+    private BufferedImage normalizeGray(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = gray.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+
+        byte[] pixels = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        int[] histogram = new int[256];
+        for (byte p : pixels) {
+            histogram[p & 0xFF]++;
+        }
+        int low = percentile(histogram, pixels.length, 0.01);
+        int high = percentile(histogram, pixels.length, 0.99);
+        if (high - low < 16) {
+            return gray;
+        }
+
+        int[] lut = new int[256];
+        for (int i = 0; i < 256; i++) {
+            lut[i] = Math.max(0, Math.min(255, (i - low) * 255 / (high - low)));
+        }
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) lut[pixels[i] & 0xFF];
+        }
+        return gray;
+    }
+
+    private int percentile(int[] histogram, int total, double fraction) {
+        long target = (long) (total * fraction);
+        long count = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            count += histogram[i];
+            if (count > target) {
+                return i;
+            }
+        }
+        return 255;
+    }
+
+    /**
+     * 去掉 alpha 通道（JPEG 不支持透明，带 alpha 的 PNG 直接编码会得到错误的颜色）
+     */
+    private BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return rgb;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.max(0.1f, Math.min(1.0f, jpegQuality)));
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 按 EXIF Orientation（1-8）旋转/翻转，得到人眼看到的方向
+     */
+    private BufferedImage applyOrientation(BufferedImage image, int orientation) {
+        if (orientation <= 1 || orientation > 8) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean swap = orientation >= 5;
+        AffineTransform t = new AffineTransform();
+        switch (orientation) {
+            case 2 -> { t.translate(width, 0); t.scale(-1, 1); }
+            case 3 -> { t.translate(width, height); t.rotate(Math.PI); }
+            case 4 -> { t.translate(0, height); t.scale(1, -1); }
+            case 5 -> { t.rotate(-Math.PI / 2); t.scale(-1, 1); }
+            case 6 -> { t.translate(height, 0); t.rotate(Math.PI / 2); }
+            case 7 -> { t.scale(-1, 1); t.translate(-height, 0); t.translate(0, width); t.rotate(3 * Math.PI / 2); }
+            case 8 -> { t.translate(0, width); t.rotate(3 * Math.PI / 2); }
+            default -> { }
+        }
+        BufferedImage rotated = new BufferedImage(swap ? height : width, swap ? width : height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rotated.createGraphics();
+        try {
+            g.drawImage(image, t, null);
+        } finally {
+            g.dispose();
+        }
+        return rotated;
+    }
+
+    /**
+     * 从 JPEG 的 APP1(Exif) 段读取 IFD0 中的 Orientation(0x0112)；非 JPEG 或没有该字段时返回 1
+     */
+    static int readExifOrientation(byte[] data) {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+        int offset = 2;
+        while (offset + 4 <= data.length && (data[offset] & 0xFF) == 0xFF) {
+            int marker = data[offset + 1] & 0xFF;
+            int length = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+            if (marker == 0xDA || length < 2) {
+                break;
+            }
+            int segment = offset + 4;
+            if (marker == 0xE1 && segment + 14 <= data.length
+                    && data[segment] == 'E' && data[segment + 1] == 'x' && data[segment + 2] == 'i' && data[segment + 3] == 'f') {
+                return readTiffOrientation(data, segment + 6, Math.min(data.length, offset + 2 + length));
+            }
+            offset += 2 + length;
+        }
+        return 1;
+    }
+
+    private static int readTiffOrientation(byte[] data, int tiff, int end) {
+        boolean little = data[tiff] == 'I' && data[tiff + 1] == 'I';
+        int ifd = tiff + readInt(data, tiff + 4, little);
+        if (ifd + 2 > end) {
+            return 1;
+        }
+        int entries = readShort(data, ifd, little);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (readShort(data, entry, little) == 0x0112) {
+                return readShort(data, entry + 8, little);
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean little) {
+        int a = data[offset] & 0xFF;
+        int b = data[offset + 1] & 0xFF;
+        return little ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean little) {
+        int a = data[offset] & 0xFF;
+        int b = data[offset + 1] & 0xFF;
+        int c = data[offset + 2] & 0xFF;
+        int d = data[offset + 3] & 0xFF;
+        return little ? (d << 24) | (c << 16) | (b << 8) | a : (a << 24) | (b << 16) | (c << 8) | d;
+    }
+
+    /**
+     * 子采样解码后的图片：sourceWidth/sourceHeight 为原图尺寸，orientation 为尚未应用的 EXIF 方向
+     */
+    public record DecodedImage(BufferedImage image, int sourceWidth, int sourceHeight, int orientation) {}
+
+    /**
+     * 预处理后的图片
+     */
+    public record PreparedImage(byte[] bytes, String contentType, long originalSize) {
+
+        static PreparedImage original(byte[] bytes, String contentType) {
+            return new PreparedImage(bytes, contentType, bytes == null ? 0 : bytes.length);
+        }
+
+        public long bytesSaved() {
+            return originalSize - (bytes == null ? 0 : bytes.length);
+        }
+    }
+}
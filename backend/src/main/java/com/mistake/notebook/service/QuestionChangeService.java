@@ -0,0 +1,205 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.dto.QuestionChangesDTO;
+import com.mistake.notebook.dto.QuestionDTO;
+import com.mistake.notebook.entity.Question;
+import com.mistake.notebook.entity.QuestionChange;
+import com.mistake.notebook.repository.QuestionChangeRepository;
+import com.mistake.notebook.repository.QuestionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 题目增量同步：维护变更序列并按游标返回增量。
+ * QuestionService 在每个修改题目的事务末尾调用 recordUpsert/recordDelete，变更与题目数据同时提交或回滚；
+ * 拉取时按题目去重，只返回每道题目的当前状态（已删除的只返回ID），一万道题的错题本再次同步只需几 KB。
+ * 游标对前端不透明（内部为变更序号），旧记录只在被同一题目更新的变更覆盖后清理，任意旧游标都无需全量重拉。
+ * <p>
+ * 自增序号在插入时分配、提交时才可见，较小序号的事务可能晚于较大序号提交。游标只推进到第一个"较新的空洞"之前：
+ * 空洞之后的记录创建不足 gap-wait-ms 时，认为空洞处的事务可能尚未提交，本次停在空洞前，下次再查；
+ * 超过该时长仍未出现的序号视为回滚或已被清理的永久空洞。因此只有持续超过 gap-wait-ms 才提交的事务，
+ * 其变更可能被已越过它的游标漏掉——这是接口约定的上限，前端应在启动时或每天做一次全量同步（不传 since）兜底。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class QuestionChangeService {
+
+    private static final String CURSOR_PREFIX = "q1:";
+
+    private final QuestionChangeRepository questionChangeRepository;
+    private final QuestionRepository questionRepository;
+
+    @Value("${questions.changes.default-limit:500}")
+    private int defaultLimit;
+
+    @Value("${questions.changes.max-limit:1000}")
+    private int maxLimit;
+
+    /**
+     * 序号空洞的最长等待时长：空洞之后的记录创建不足该时长时游标停在空洞前（修改题目的事务应远短于此）
+     */
+    @Value("${questions.changes.gap-wait-ms:60000}")
+    private long gapWaitMs;
+
+    /**
+     * 单次拉取最多检查的变更序号数
+     */
+    @Value("${questions.changes.scan-limit:5000}")
+    private int scanLimit;
+
+    /**
+     * 被覆盖的旧记录保留时长
+     */
+    @Value("${questions.changes.compact-after-hours:24}")
+    private long compactAfterHours;
+
+    /**
+     * 记录题目新建/修改（在调用方事务中写入）
+     */
+    @Transactional
+    public void recordUpsert(Long questionId) {
+        questionChangeRepository.save(new QuestionChange(questionId, QuestionChange.ChangeType.UPSERT));
+    }
+
+    /**
+     * 记录题目删除
+     */
+    @Transactional
+    public void recordDelete(Long questionId) {
+        questionChangeRepository.save(new QuestionChange(questionId, QuestionChange.ChangeType.DELETE));
+    }
+
+    /**
+     * 拉取游标之后的变更
+     *
+     * @param cursor 上次返回的 nextCursor，为空表示首次同步（返回全部题目，不含墓碑）
+     * @param limit  本页最多返回的题目数
+     * @throws IllegalArgumentException 游标无法解析
+     */
+    @Transactional(readOnly = true)
+    public QuestionChangesDTO getChanges(String cursor, Integer limit) {
+        long since = decodeCursor(cursor);
+        int size = limit == null || limit <= 0 ? defaultLimit : Math.min(limit, maxLimit);
+
+        List<Object[]> sequence = questionChangeRepository.findSequenceAfter(since, PageRequest.of(0, scanLimit));
+        long until = safeHighWater(since, sequence, LocalDateTime.now().minus(gapWaitMs, ChronoUnit.MILLIS));
+        // 检查的序号已满且没有被空洞截断：区间之后可能还有变更
+        boolean moreBeyond = sequence.size() == scanLimit && until == (Long) sequence.get(sequence.size() - 1)[0];
+        if (until == since) {
+            return new QuestionChangesDTO(List.of(), List.of(), encodeCursor(since), false);
+        }
+
+        List<Object[]> latest = questionChangeRepository.findLatestChangesAfter(since, until,
+                PageRequest.of(0, size + 1));
+        boolean truncated = latest.size() > size;
+        if (truncated) {
+            latest = latest.subList(0, size);
+        }
+        if (latest.isEmpty()) {
+            return new QuestionChangesDTO(List.of(), List.of(), encodeCursor(until), moreBeyond);
+        }
+
+        List<Long> ids = latest.stream().map(row -> (Long) row[0]).collect(Collectors.toList());
+        Map<Long, Question> questions = questionRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Question::getId, Function.identity()));
+
+        // 以题目当前状态为准：记录为 UPSERT、随后又被删除（尚未到达游标）的题目同样下发墓碑
+        List<QuestionDTO> upserts = new ArrayList<>();
+        List<Long> deletedIds = new ArrayList<>();
+        for (Long id : ids) {
+            Question question = questions.get(id);
+            if (question != null && !Boolean.TRUE.equals(question.getIsDeleted())) {
+                upserts.add(QuestionDTO.fromEntity(question));
+            } else if (since > 0) {
+                deletedIds.add(id);
+            }
+        }
+        // 本页截断时停在最后一道题目的最新序号，否则整个区间都已下发
+        long nextSeq = truncated ? (Long) latest.get(latest.size() - 1)[1] : until;
+        return new QuestionChangesDTO(upserts, deletedIds, encodeCursor(nextSeq), truncated || moreBeyond);
+    }
+
+    /**
+     * 游标可以安全推进到的序号：自 since 起逐个检查已提交的序号，遇到空洞且其后的记录创建不足 gapWaitMs 时停在空洞前；
+     * 更早的空洞（回滚、批量插入预留、已清理）直接跳过
+     */
+    static long safeHighWater(long since, List<Object[]> sequence, LocalDateTime gapDeadline) {
+        long expected = since + 1;
+        for (Object[] row : sequence) {
+            long id = (Long) row[0];
+            LocalDateTime createdAt = (LocalDateTime) row[1];
+            if (id != expected && createdAt.isAfter(gapDeadline)) {
+                return expected - 1;
+            }
+            expected = id + 1;
+        }
+        return expected - 1;
+    }
+
+    /**
+     * 为变更表上线前的历史题目补齐变更记录（启动时执行，已有记录的题目跳过）
+     */
+    @Transactional
+    public void backfill() {
+        int inserted = questionChangeRepository.backfillMissing(LocalDateTime.now());
+        if (inserted > 0) {
+            log.info("已为 {} 道历史题目补齐增量同步记录", inserted);
+        }
+    }
+
+    /**
+     * 定期清理被覆盖的旧变更记录
+     */
+    @Scheduled(fixedDelayString = "${questions.changes.compact-interval-ms:3600000}",
+            initialDelayString = "${questions.changes.compact-interval-ms:3600000}")
+    public void compact() {
+        try {
+            int deleted = questionChangeRepository.deleteSuperseded(LocalDateTime.now().minusHours(compactAfterHours));
+            if (deleted > 0) {
+                log.info("清理被覆盖的题目变更记录 {} 条", deleted);
+            }
+        } catch (Exception e) {
+            log.error("清理题目变更记录失败", e);
+        }
+    }
+
+    static String encodeCursor(long seq) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((CURSOR_PREFIX + seq).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+            if (!raw.startsWith(CURSOR_PREFIX)) {
+                throw new IllegalArgumentException("无效的同步游标");
+            }
+            long seq = Long.parseLong(raw.substring(CURSOR_PREFIX.length()));
+            if (seq < 0) {
+                throw new IllegalArgumentException("无效的同步游标");
+            }
+            return seq;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的同步游标", e);
+        }
+    }
+}
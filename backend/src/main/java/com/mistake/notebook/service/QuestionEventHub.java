@@ -0,0 +1,121 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.dto.QuestionAiStatusEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 题目 AI 状态推送（SSE）：QuestionService 在状态推进时发布事件，事务提交后广播给所有订阅的前端，
+ * 取代前端每 5 秒轮询 /questions/pending（每次都查询并序列化全部待解析题目的正文）。
+ * 广播在单独的线程上进行，慢客户端不会拖慢 AI 任务执行器；定时发送心跳，及时清理已断开的连接。
+ * 事件只在本节点内广播：多节点部署时前端在（重）连接时全量同步一次，并保留低频兜底同步。
+ */
+@Component
+@Slf4j
+public class QuestionEventHub {
+
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    private final ExecutorService broadcaster = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "question-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${ai.events.max-subscribers:1000}")
+    private int maxSubscribers;
+
+    @Value("${ai.events.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * 新建订阅；订阅数已满时返回 null
+     */
+    public SseEmitter subscribe() {
+        if (emitters.size() >= maxSubscribers) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(e -> emitters.remove(emitter));
+        emitters.add(emitter);
+        try {
+            emitter.send(SseEmitter.event().name("ready").data(Map.of("subscribers", emitters.size())));
+        } catch (IOException e) {
+            emitters.remove(emitter);
+        }
+        return emitter;
+    }
+
+    /**
+     * 状态变化在事务提交后才广播（回滚的变化不会推送）；无事务时直接广播
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(QuestionAiStatusEvent event) {
+        published.incrementAndGet();
+        if (emitters.isEmpty()) {
+            return;
+        }
+        broadcaster.execute(() -> broadcast(() -> SseEmitter.event()
+                .name("ai-status")
+                .id(String.valueOf(event.getQuestionId()))
+                .data(event)));
+    }
+
+    /**
+     * 心跳：保持代理连接不被回收，同时发现已断开的客户端
+     */
+    @Scheduled(fixedDelayString = "${ai.events.heartbeat-ms:25000}")
+    public void heartbeat() {
+        if (!emitters.isEmpty()) {
+            broadcaster.execute(() -> broadcast(() -> SseEmitter.event().comment("ping")));
+        }
+    }
+
+    /**
+     * SseEventBuilder 构建后不可复用，每个连接单独构建一次
+     */
+    private void broadcast(Supplier<SseEmitter.SseEventBuilder> event) {
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(event.get());
+            } catch (Exception e) {
+                dropped.incrementAndGet();
+                emitters.remove(emitter);
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        emitters.forEach(SseEmitter::complete);
+        broadcaster.shutdownNow();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("subscribers", emitters.size());
+        stats.put("published", published.get());
+        stats.put("dropped", dropped.get());
+        return stats;
+    }
+}
@@ -1,11 +1,17 @@
 package com.mistake.notebook.service;
 
 import com.mistake.notebook.dto.CreateQuestionRequest;
+import com.mistake.notebook.dto.QuestionAiStatusEvent;
 import com.mistake.notebook.dto.QuestionDTO;
+import com.mistake.notebook.dto.QuestionSliceDTO;
+import com.mistake.notebook.config.AiLane;
+import com.mistake.notebook.entity.AiJob;
 import com.mistake.notebook.entity.Question;
 import com.mistake.notebook.repository.QuestionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -13,6 +19,10 @@ import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -26,8 +36,21 @@ import java.util.stream.Collectors;
 @Slf4j
 public class QuestionService {
 
+    private static final String SLICE_CURSOR_PREFIX = "p1:";
+    private static final LocalDateTime KEYSET_MIN_TIME = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime KEYSET_MAX_TIME = LocalDateTime.of(9999, 12, 31, 0, 0);
+
     private final QuestionRepository questionRepository;
     private final AIAnswerService aiAnswerService;
+    private final AiJobQueue aiJobQueue;
+    private final ApplicationEventPublisher eventPublisher;
+    private final QuestionChangeService questionChangeService;
+
+    /**
+     * 题目处于 PROCESSING 超过该时长视为处理者失联，允许其它节点重新领取
+     */
+    @Value("${ai.jobs.processing-lease-seconds:600}")
+    private long processingLeaseSeconds;
 
     /**
      * 创建题目
@@ -49,6 +72,7 @@ public class QuestionService {
         
         Question question = dto.toEntity();
         Question savedQuestion = questionRepository.save(question);
+        questionChangeService.recordUpsert(savedQuestion.getId());
         
         log.info("题目创建成功，ID：{}", savedQuestion.getId());
         return QuestionDTO.fromEntity(savedQuestion);
@@ -84,6 +108,77 @@ public class QuestionService {
                 .map(QuestionDTO::fromEntity);
     }
 
+    /**
+     * 键集分页查询题目：按 (createdAt, id) 定位上一页最后一条之后的记录，深翻页开销与页大小相关而与页码无关。
+     * 游标为上一页返回的 nextCursor（为空取第一页）；分类、难度为空时不过滤；withTotal 为 false 时不统计总数
+     *
+     * @throws IllegalArgumentException 游标或难度等级无效
+     */
+    public QuestionSliceDTO getQuestionSlice(String cursor, int size, String sortDir,
+                                             String category, String difficulty, boolean withTotal) {
+        boolean ascending = "asc".equalsIgnoreCase(sortDir);
+        String categoryFilter = category != null && !category.isBlank() ? category : null;
+        Question.DifficultyLevel difficultyFilter = null;
+        if (difficulty != null && !difficulty.isBlank()) {
+            try {
+                difficultyFilter = Question.DifficultyLevel.valueOf(difficulty.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("无效的难度等级：" + difficulty);
+            }
+        }
+
+        // 第一页以取值范围之外的哨兵作为起点，与后续页共用同一条查询
+        LocalDateTime afterCreatedAt = ascending ? KEYSET_MIN_TIME : KEYSET_MAX_TIME;
+        long afterId = ascending ? 0L : Long.MAX_VALUE;
+        if (cursor != null && !cursor.isBlank()) {
+            String[] position = decodeSliceCursor(cursor);
+            afterCreatedAt = LocalDateTime.parse(position[0]);
+            afterId = Long.parseLong(position[1]);
+        }
+
+        Pageable limit = PageRequest.of(0, size + 1);
+        List<Question> rows = ascending
+                ? questionRepository.findPageAfter(categoryFilter, difficultyFilter, afterCreatedAt, afterId, limit)
+                : questionRepository.findPageBefore(categoryFilter, difficultyFilter, afterCreatedAt, afterId, limit);
+        boolean hasMore = rows.size() > size;
+        if (hasMore) {
+            rows = rows.subList(0, size);
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            Question last = rows.get(rows.size() - 1);
+            nextCursor = encodeSliceCursor(last.getCreatedAt(), last.getId());
+        }
+        Long total = withTotal ? questionRepository.countFiltered(categoryFilter, difficultyFilter) : null;
+        List<QuestionDTO> content = rows.stream()
+                .map(QuestionDTO::fromEntity)
+                .collect(Collectors.toList());
+        return new QuestionSliceDTO(content, nextCursor, hasMore, total);
+    }
+
+    private static String encodeSliceCursor(LocalDateTime createdAt, Long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((SLICE_CURSOR_PREFIX + createdAt + "," + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodeSliceCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+            String[] position = raw.startsWith(SLICE_CURSOR_PREFIX)
+                    ? raw.substring(SLICE_CURSOR_PREFIX.length()).split(",", 2)
+                    : new String[0];
+            if (position.length != 2) {
+                throw new IllegalArgumentException("无效的分页游标");
+            }
+            LocalDateTime.parse(position[0]);
+            Long.parseLong(position[1]);
+            return position;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+    }
+
     /**
      * 根据分类查询题目
      */
@@ -183,6 +278,7 @@ public class QuestionService {
                     question.setAiAnalysis(request.getAiAnalysis());
                     
                     Question savedQuestion = questionRepository.save(question);
+                    questionChangeService.recordUpsert(savedQuestion.getId());
                     log.info("题目更新成功，ID：{}", savedQuestion.getId());
                     return QuestionDTO.fromEntity(savedQuestion);
                 });
@@ -198,6 +294,7 @@ public class QuestionService {
                 .map(question -> {
                     question.setIsDeleted(true);
                     questionRepository.save(question);
+                    questionChangeService.recordDelete(id);
                     log.info("题目删除成功，ID：{}", id);
                     return true;
                 })
@@ -216,6 +313,7 @@ public class QuestionService {
             if (!question.getIsDeleted()) {
                 question.setIsDeleted(true);
                 questionRepository.save(question);
+                questionChangeService.recordDelete(question.getId());
                 log.info("批量删除题目，ID：{}", question.getId());
             }
         });
@@ -252,16 +350,26 @@ public class QuestionService {
                         question.setAiConfidence(result.getConfidence());
                     }
                     Question saved = questionRepository.save(question);
+                    questionChangeService.recordUpsert(id);
                     log.info("题目 {} AI 解析已重新生成", id);
                     return QuestionDTO.fromEntity(saved);
                 });
     }
 
     /**
-     * 创建处于"待AI解析"状态的题目（快速返回，后台异步生成答案/分类）
+     * 创建处于"待AI解析"状态的题目（快速返回，后台异步生成答案/分类）。
+     * AI 任务与题目同事务入队，不会出现没有任务的 PENDING 题目。
      */
     @Transactional
     public QuestionDTO createPendingQuestion(CreateQuestionRequest request) {
+        return createPendingQuestion(request, AiLane.USER_VISIBLE);
+    }
+
+    /**
+     * 创建待解析题目，AI 任务进入指定优先级通道（整页批量保存走 BULK）
+     */
+    @Transactional
+    public QuestionDTO createPendingQuestion(CreateQuestionRequest request, AiLane lane) {
         QuestionDTO dto = new QuestionDTO();
         dto.setContent(request.getContent());
         dto.setImageUrl(request.getImageUrl());
@@ -274,12 +382,14 @@ public class QuestionService {
         Question question = dto.toEntity();
         question.setAiStatus(Question.AiStatus.PENDING);
         Question saved = questionRepository.save(question);
+        aiJobQueue.enqueue(AiJob.JobType.QUESTION_ANALYSIS, saved.getId(), lane);
+        publishStatus(saved.getId(), Question.AiStatus.PENDING, null);
         log.info("题目已保存(待解析)，ID：{}", saved.getId());
         return QuestionDTO.fromEntity(saved);
     }
 
     /**
-     * 查询正在/等待 AI 解析（或失败）的题目，用于"解析中"轮询
+     * 查询正在/等待 AI 解析（或失败）的题目：用于"解析中"列表的初始加载与 SSE 断线重连后的兜底同步，进度变化本身由 SSE 推送
      */
     public List<QuestionDTO> getPendingQuestions() {
         List<Question.AiStatus> statuses = List.of(
@@ -293,39 +403,78 @@ public class QuestionService {
     }
 
     /**
-     * 标记题目进入 AI 处理中（独立事务，便于前端立即看到状态）
+     * 领取题目的 AI 处理权（PENDING → PROCESSING，比较并交换，独立事务便于前端立即看到状态）。
+     * 多个节点或重复投递的任务同时领取时只有一个成功；PROCESSING 超过处理租约的题目可被重新领取。
+     * 题目不存在、已删除、已完成/失败或正被他人处理时返回 false，调用方据此跳过
      */
     @Transactional
-    public void markAiProcessing(Long id) {
-        questionRepository.findById(id).ifPresent(q -> {
-            q.setAiStatus(Question.AiStatus.PROCESSING);
-            questionRepository.save(q);
-        });
+    public boolean markAiProcessing(Long id) {
+        LocalDateTime now = LocalDateTime.now();
+        boolean claimed = questionRepository.claimAiProcessing(id, Question.AiStatus.PENDING, Question.AiStatus.PROCESSING,
+                now, now.minusSeconds(processingLeaseSeconds)) == 1;
+        if (claimed) {
+            publishStatus(id, Question.AiStatus.PROCESSING, null);
+        }
+        return claimed;
     }
 
     /**
-     * 将题目重置为待解析（用于重试）
+     * 归还 AI 处理权（PROCESSING → PENDING）：处理中途出现基础设施异常、任务即将由队列退避重试时调用，
+     * 重试的任务才能重新领取并真正执行，重试耗尽后由 markAiFailed 置为失败
+     */
+    @Transactional
+    public void releaseAiProcessing(Long id) {
+        int updated = questionRepository.compareAndSetAiStatus(id, List.of(Question.AiStatus.PROCESSING),
+                Question.AiStatus.PENDING, null, LocalDateTime.now());
+        if (updated > 0) {
+            publishStatus(id, Question.AiStatus.PENDING, null);
+        }
+    }
+
+    /**
+     * 将题目重置为待解析并重新入队（用于重试）；正在处理中（租约未过期）的题目不重复提交
      */
     @Transactional
     public boolean markAiPending(Long id) {
         return questionRepository.findById(id)
                 .filter(q -> !q.getIsDeleted())
                 .map(q -> {
-                    q.setAiStatus(Question.AiStatus.PENDING);
-                    q.setAiError(null);
-                    questionRepository.save(q);
+                    boolean processing = q.getAiStatus() == Question.AiStatus.PROCESSING && q.getUpdatedAt() != null
+                            && q.getUpdatedAt().isAfter(LocalDateTime.now().minusSeconds(processingLeaseSeconds));
+                    if (processing) {
+                        log.info("题目 {} 正在AI解析中，忽略重复提交", id);
+                        return true;
+                    }
+                    questionRepository.compareAndSetAiStatus(id,
+                            List.of(Question.AiStatus.PENDING, Question.AiStatus.PROCESSING,
+                                    Question.AiStatus.COMPLETED, Question.AiStatus.FAILED),
+                            Question.AiStatus.PENDING, null, LocalDateTime.now());
+                    aiJobQueue.enqueue(AiJob.JobType.QUESTION_ANALYSIS, id, AiLane.USER_VISIBLE);
+                    publishStatus(id, Question.AiStatus.PENDING, null);
                     return true;
                 })
                 .orElse(false);
     }
 
     /**
-     * 写入 AI 分类与答案结果，并把状态置为完成/失败
+     * 写入 AI 分类与答案结果，并把状态置为完成/失败。
+     * 状态以比较并交换推进（PENDING/PROCESSING → COMPLETED/FAILED），只有第一个到达的结果生效；
+     * 重复投递或被接管的任务再次写入时直接忽略，保证幂等
      */
     @Transactional
     public void applyAiResult(Long id,
                               AIClassificationService.ClassificationResult classification,
                               AIAnswerService.AnswerResult answer) {
+        boolean success = answer != null && answer.isSuccess();
+        Question.AiStatus target = success ? Question.AiStatus.COMPLETED : Question.AiStatus.FAILED;
+        String error = success ? null : (answer != null ? answer.getAnalysis() : "AI解析失败");
+        int updated = questionRepository.compareAndSetAiStatus(id,
+                List.of(Question.AiStatus.PENDING, Question.AiStatus.PROCESSING), target, error, LocalDateTime.now());
+        if (updated == 0) {
+            log.info("题目 {} 已不在待解析状态，忽略重复的AI结果", id);
+            return;
+        }
+
         questionRepository.findById(id).ifPresent(q -> {
             if (classification != null && classification.isSuccess()) {
                 if (classification.getCategory() != null) {
@@ -341,34 +490,35 @@ public class QuestionService {
                 q.setAiConfidence(classification.getConfidence());
             }
 
-            boolean success = answer != null && answer.isSuccess();
             if (answer != null) {
                 q.setAiAnswer(answer.getAnswer());
                 q.setAiAnalysis(answer.getAnalysis());
             }
-
-            if (success) {
-                q.setAiStatus(Question.AiStatus.COMPLETED);
-                q.setAiError(null);
-            } else {
-                q.setAiStatus(Question.AiStatus.FAILED);
-                q.setAiError(answer != null ? answer.getAnalysis() : "AI解析失败");
-            }
             questionRepository.save(q);
             log.info("题目 {} AI解析完成，状态：{}", id, q.getAiStatus());
         });
+        publishStatus(id, target, error);
     }
 
     /**
-     * 标记题目 AI 解析失败
+     * 标记题目 AI 解析失败（仅待解析/处理中的题目，已完成的结果不会被覆盖）
      */
     @Transactional
     public void markAiFailed(Long id, String error) {
-        questionRepository.findById(id).ifPresent(q -> {
-            q.setAiStatus(Question.AiStatus.FAILED);
-            q.setAiError(error);
-            questionRepository.save(q);
-        });
+        int updated = questionRepository.compareAndSetAiStatus(id,
+                List.of(Question.AiStatus.PENDING, Question.AiStatus.PROCESSING),
+                Question.AiStatus.FAILED, error, LocalDateTime.now());
+        if (updated > 0) {
+            publishStatus(id, Question.AiStatus.FAILED, error);
+        }
+    }
+
+    /**
+     * 记录题目变更（增量同步）并发布 AI 状态变化事件，事务提交后由 QuestionEventHub 推送给前端
+     */
+    private void publishStatus(Long id, Question.AiStatus status, String error) {
+        questionChangeService.recordUpsert(id);
+        eventPublisher.publishEvent(new QuestionAiStatusEvent(id, status.name().toLowerCase(), error, LocalDateTime.now()));
     }
 
     /**
@@ -0,0 +1,195 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.config.AiLane;
+import com.mistake.notebook.dto.CreateQuestionRequest;
+import com.mistake.notebook.dto.QuestionAiStatusEvent;
+import com.mistake.notebook.dto.QuestionDTO;
+import com.mistake.notebook.entity.AiJob;
+import com.mistake.notebook.entity.Question;
+import com.mistake.notebook.entity.UploadJob;
+import com.mistake.notebook.repository.UploadJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 拍照上传任务：把"保存图片 → 视觉识别 → AI 分类 → AI 解析 → 入库"拆成后台阶段。
+ * 请求线程只负责落盘与建任务（同事务写入识别任务）；AI 任务执行器领取后完成识别，
+ * 识别成功后创建待解析题目，分类与解析作为下一个 AI 任务入队；题目解析结束的状态事件把任务推进为完成，进度通过任务ID查询。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UploadJobService {
+
+    private static final String DEFAULT_CATEGORY = "语文";
+
+    private final UploadJobRepository uploadJobRepository;
+    private final VisionReasoningService visionReasoningService;
+    private final QuestionService questionService;
+    private final AiJobQueue aiJobQueue;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${file.upload.path}")
+    private String uploadPath;
+
+    /**
+     * 创建上传任务（图片已落盘），识别任务同事务入队
+     */
+    @Transactional
+    public UploadJob createJob(String imageUrl, String originalFilename, String contentType) {
+        UploadJob job = new UploadJob();
+        job.setImageUrl(imageUrl);
+        job.setOriginalFilename(originalFilename);
+        job.setContentType(contentType);
+        job.setStage(UploadJob.Stage.QUEUED);
+        UploadJob saved = uploadJobRepository.save(job);
+        aiJobQueue.enqueue(AiJob.JobType.UPLOAD_RECOGNITION, saved.getId(), AiLane.USER_VISIBLE);
+        log.info("上传任务已创建，ID：{}，图片：{}", saved.getId(), imageUrl);
+        return saved;
+    }
+
+    /**
+     * 识别阶段（由 AI 任务执行器调用）：读取落盘图片做视觉识别，成功后创建待解析题目。
+     * 幂等：已进入解析阶段或已结束的任务直接跳过；识别中途宕机的任务重新识别
+     */
+    public void recognize(Long jobId) {
+        UploadJob job = uploadJobRepository.findById(jobId).orElse(null);
+        if (job == null || (job.getStage() != UploadJob.Stage.QUEUED && job.getStage() != UploadJob.Stage.RECOGNIZING)) {
+            return;
+        }
+
+        byte[] imageBytes;
+        try {
+            imageBytes = Files.readAllBytes(resolveFile(job.getImageUrl()));
+        } catch (Exception e) {
+            log.error("上传任务 {} 读取图片失败", jobId, e);
+            fail(job, "读取图片失败：" + e.getMessage());
+            return;
+        }
+
+        job.setStage(UploadJob.Stage.RECOGNIZING);
+        uploadJobRepository.save(job);
+
+        VisionReasoningService.VisionResult visionResult = visionReasoningService
+                .recognizeTextAsync(imageBytes, job.getContentType(), job.getOriginalFilename())
+                .join();
+        if (!visionResult.isSuccess() || visionResult.getContent() == null || visionResult.getContent().isBlank()) {
+            fail(job, "图片识别失败：" + visionResult.getError());
+            return;
+        }
+
+        CreateQuestionRequest request = new CreateQuestionRequest();
+        request.setContent(visionResult.getContent());
+        request.setImageUrl(job.getImageUrl());
+        request.setCategory(DEFAULT_CATEGORY);
+        request.setDifficulty("medium");
+        request.setOcrConfidence(visionResult.getConfidence());
+
+        // 先以条件更新把任务推进到解析阶段，成功（影响 1 行）才建题（含解析任务入队），同一事务提交；
+        // 租约被接管等重复投递同时识别完成时，只有先推进的一次会建题
+        Long questionId = transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            int advanced = uploadJobRepository.advanceStage(jobId,
+                    List.of(UploadJob.Stage.QUEUED, UploadJob.Stage.RECOGNIZING), UploadJob.Stage.ANALYZING, now);
+            if (advanced != 1) {
+                return null;
+            }
+            QuestionDTO question = questionService.createPendingQuestion(request);
+            uploadJobRepository.attachQuestion(jobId, question.getId(), now);
+            return question.getId();
+        });
+        if (questionId == null) {
+            log.info("上传任务 {} 已由其它投递推进到解析阶段，跳过建题", jobId);
+            return;
+        }
+        log.info("上传任务 {} 识别完成，题目ID：{}，进入AI解析阶段", jobId, questionId);
+    }
+
+    /**
+     * 标记上传任务失败（识别任务重试耗尽时调用）
+     */
+    public void markFailed(Long jobId, String error) {
+        uploadJobRepository.findById(jobId).ifPresent(job -> fail(job, error));
+    }
+
+    /**
+     * 关联题目 AI 解析结束（完成或失败）时推进上传任务：同步监听，与题目状态在同一事务中提交
+     */
+    @EventListener
+    public void onQuestionAiStatus(QuestionAiStatusEvent event) {
+        if (!"completed".equals(event.getAiStatus()) && !"failed".equals(event.getAiStatus())) {
+            return;
+        }
+        int advanced = uploadJobRepository.advanceStageByQuestion(event.getQuestionId(),
+                UploadJob.Stage.ANALYZING, UploadJob.Stage.COMPLETED, LocalDateTime.now());
+        if (advanced > 0) {
+            log.info("题目 {} AI解析结束，上传任务完成", event.getQuestionId());
+        }
+    }
+
+    /**
+     * 补齐停在解析阶段、关联题目其实已解析结束的任务（启动时执行）
+     */
+    @Transactional
+    public void completeFinishedJobs() {
+        int completed = uploadJobRepository.completeFinishedAnalyzing(UploadJob.Stage.ANALYZING,
+                UploadJob.Stage.COMPLETED, List.of(Question.AiStatus.COMPLETED, Question.AiStatus.FAILED),
+                LocalDateTime.now());
+        if (completed > 0) {
+            log.info("已将 {} 个解析已结束的上传任务标记为完成", completed);
+        }
+    }
+
+    /**
+     * 查询任务进度（只读，阶段由各处理环节推进）
+     */
+    @Transactional(readOnly = true)
+    public Optional<Map<String, Object>> getJobStatus(Long jobId) {
+        return uploadJobRepository.findById(jobId).map(job -> {
+            QuestionDTO question = job.getQuestionId() != null
+                    ? questionService.getQuestionById(job.getQuestionId()).orElse(null)
+                    : null;
+
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("jobId", job.getId());
+            status.put("stage", job.getStage().name().toLowerCase());
+            status.put("done", job.getStage() == UploadJob.Stage.COMPLETED || job.getStage() == UploadJob.Stage.FAILED);
+            status.put("imageUrl", job.getImageUrl());
+            status.put("questionId", job.getQuestionId());
+            status.put("error", job.getError());
+            status.put("question", question);
+            status.put("createdAt", job.getCreatedAt());
+            status.put("updatedAt", job.getUpdatedAt());
+            return status;
+        });
+    }
+
+    private void fail(UploadJob job, String error) {
+        job.setStage(UploadJob.Stage.FAILED);
+        job.setError(error);
+        uploadJobRepository.save(job);
+        log.warn("上传任务 {} 失败：{}", job.getId(), error);
+    }
+
+    /**
+     * 把 /uploads/xxx 形式的访问URL还原为上传目录下的本地文件
+     */
+    private Path resolveFile(String imageUrl) {
+        String filename = imageUrl.substring(imageUrl.lastIndexOf('/') + 1);
+        return Paths.get(uploadPath).resolve(filename);
+    }
+}
@@ -1,20 +1,23 @@
 package com.mistake.notebook.service;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mistake.notebook.config.LlmResponseDecoder;
+import com.mistake.notebook.config.SimpleOpenAIClient;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 百炼视觉推理服务
@@ -25,6 +28,11 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class VisionReasoningService {
 
+    /**
+     * 单张图片的预估输入 token（用于出站 TPM 限流）
+     */
+    private static final long VISION_IMAGE_TOKENS = 1280;
+
     @Value("${aliyun.dashscope.api-key}")
     private String apiKey;
 
@@ -46,34 +54,67 @@ public class VisionReasoningService {
     @Value("${aliyun.dashscope.vision.temperature}")
     private double temperature;
 
-    private final OkHttpClient httpClient = new OkHttpClient.Builder()
-            .connectTimeout(120, TimeUnit.SECONDS)
-            .readTimeout(300, TimeUnit.SECONDS)
-            .writeTimeout(120, TimeUnit.SECONDS)
-            .build();
+    @Value("${aliyun.dashscope.vision.read-timeout-seconds:300}")
+    private long readTimeoutSeconds;
+
+    private final SimpleOpenAIClient openAIClient;
+    private final VisionResultCache visionResultCache;
+    private final VisionRequestExecutor visionRequestExecutor;
+    private final LlmResponseDecoder responseDecoder;
+    private final ImagePreprocessor imagePreprocessor;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 启动后预热视觉推理接口所在主机的连接
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        openAIClient.warmUp(baseUrl, apiKey);
+    }
 
     /**
      * 使用视觉推理模型识别图片中的文字
      */
     public VisionResult recognizeText(MultipartFile file) {
+        return recognizeTextAsync(file).join();
+    }
+
+    /**
+     * 异步识别图片文字：图片在调用线程读取，等待模型响应期间不占用线程
+     */
+    public CompletableFuture<VisionResult> recognizeTextAsync(MultipartFile file) {
         try {
             // 验证文件
             if (file.isEmpty()) {
-                return new VisionResult(false, "", "", 0.0, "文件为空");
+                return CompletableFuture.completedFuture(new VisionResult(false, "", "", 0.0, "文件为空"));
             }
 
             // 验证文件大小（最大10MB）
             if (file.getSize() > 10 * 1024 * 1024) {
-                return new VisionResult(false, "", "", 0.0, "文件大小超过限制");
+                return CompletableFuture.completedFuture(new VisionResult(false, "", "", 0.0, "文件大小超过限制"));
             }
 
             // 验证文件类型
             String contentType = file.getContentType();
             if (contentType == null || !isImageFile(contentType)) {
-                return new VisionResult(false, "", "", 0.0, "不支持的文件类型");
+                return CompletableFuture.completedFuture(new VisionResult(false, "", "", 0.0, "不支持的文件类型"));
             }
 
-            log.info("开始视觉推理识别，文件名：{}，大小：{} bytes", file.getOriginalFilename(), file.getSize());
+            return recognizeTextAsync(file.getBytes(), contentType, file.getOriginalFilename());
+
+        } catch (Exception e) {
+            log.error("视觉推理识别失败", e);
+            return CompletableFuture.completedFuture(
+                    new VisionResult(false, "", "", 0.0, "识别过程中发生错误：" + e.getMessage()));
+        }
+    }
+
+    /**
+     * 异步识别已落盘图片的文字（上传任务的后台识别阶段使用），调用方负责校验文件
+     */
+    public CompletableFuture<VisionResult> recognizeTextAsync(byte[] imageBytes, String contentType, String filename) {
+        try {
+            log.info("开始视觉推理识别，文件名：{}，大小：{} bytes", filename, imageBytes.length);
 
             // 构建识别文字的提示词
             String prompt = "请仔细识别这张图片中的所有文字内容，包括题目、选项、公式等。" +
@@ -83,11 +124,33 @@ public class VisionReasoningService {
                     "3. 如果有选择题选项，请保持A、B、C、D的格式\n" +
                     "4. 直接输出识别的文字内容，不要添加额外说明";
 
-            return callVisionAPI(file, prompt, false);
+            // 同一张图片（或重新压缩后的同一张照片）重复上传时直接复用识别结果
+            String cacheKind = "ocr:" + visionModel;
+            VisionResultCache.ImageDigest exact = visionResultCache.digest(imageBytes);
+            VisionResult cached = visionResultCache.get(cacheKind, exact, VisionResult.class);
+            // 精确匹配未命中才解码图片：子采样解码一次，感知哈希与预处理共用
+            ImagePreprocessor.DecodedImage decoded = cached != null ? null : decodeIfNeeded(imageBytes);
+            VisionResultCache.ImageDigest digest = cached != null ? exact : visionResultCache.fingerprint(exact, decoded);
+            if (cached == null) {
+                cached = visionResultCache.findSimilar(cacheKind, digest, VisionResult.class);
+            }
+            if (cached != null) {
+                log.info("视觉识别缓存命中，文件名：{}", filename);
+                return CompletableFuture.completedFuture(cached);
+            }
+
+            ImagePreprocessor.PreparedImage prepared = imagePreprocessor.prepare(imageBytes, contentType, decoded);
+            return callVisionAPIAsync(prepared.bytes(), prepared.contentType(), prompt, false).thenApply(result -> {
+                if (result.isSuccess()) {
+                    visionResultCache.put(cacheKind, digest, result);
+                }
+                return result;
+            });
 
         } catch (Exception e) {
             log.error("视觉推理识别失败", e);
-            return new VisionResult(false, "", "", 0.0, "识别过程中发生错误：" + e.getMessage());
+            return CompletableFuture.completedFuture(
+                    new VisionResult(false, "", "", 0.0, "识别过程中发生错误：" + e.getMessage()));
         }
     }
 
@@ -95,20 +158,27 @@ public class VisionReasoningService {
      * 使用视觉推理模型识别并分割题目
      */
     public VisionQuestionResult recognizeAndSegmentQuestions(MultipartFile file) {
+        return recognizeAndSegmentQuestionsAsync(file).join();
+    }
+
+    /**
+     * 异步识别并分割题目
+     */
+    public CompletableFuture<VisionQuestionResult> recognizeAndSegmentQuestionsAsync(MultipartFile file) {
         try {
             // 验证文件
             if (file.isEmpty()) {
-                return new VisionQuestionResult(false, null, "", 0.0, "文件为空");
+                return CompletableFuture.completedFuture(new VisionQuestionResult(false, null, "", 0.0, "文件为空"));
             }
 
             // 验证文件大小和类型
             if (file.getSize() > 10 * 1024 * 1024) {
-                return new VisionQuestionResult(false, null, "", 0.0, "文件大小超过限制");
+                return CompletableFuture.completedFuture(new VisionQuestionResult(false, null, "", 0.0, "文件大小超过限制"));
             }
 
             String contentType = file.getContentType();
             if (contentType == null || !isImageFile(contentType)) {
-                return new VisionQuestionResult(false, null, "", 0.0, "不支持的文件类型");
+                return CompletableFuture.completedFuture(new VisionQuestionResult(false, null, "", 0.0, "不支持的文件类型"));
             }
 
             log.info("开始视觉推理题目分割，文件名：{}，大小：{} bytes", file.getOriginalFilename(), file.getSize());
@@ -116,30 +186,61 @@ public class VisionReasoningService {
             // 构建题目分割的提示词
             String prompt = buildQuestionSegmentationPrompt();
 
-            VisionResult result = callVisionAPI(file, prompt, false);
-            
-            if (!result.isSuccess()) {
-                return new VisionQuestionResult(false, null, result.getReasoningContent(), 
-                        result.getConfidence(), result.getError());
+            byte[] imageBytes = file.getBytes();
+            String cacheKind = "segment:" + visionModel;
+            VisionResultCache.ImageDigest exact = visionResultCache.digest(imageBytes);
+            VisionQuestionResult cached = visionResultCache.get(cacheKind, exact, VisionQuestionResult.class);
+            // 精确匹配未命中才解码图片：子采样解码一次，感知哈希与预处理共用
+            ImagePreprocessor.DecodedImage decoded = cached != null ? null : decodeIfNeeded(imageBytes);
+            VisionResultCache.ImageDigest digest = cached != null ? exact : visionResultCache.fingerprint(exact, decoded);
+            if (cached == null) {
+                cached = visionResultCache.findSimilar(cacheKind, digest, VisionQuestionResult.class);
+            }
+            if (cached != null) {
+                log.info("题目分割缓存命中，文件名：{}", file.getOriginalFilename());
+                return CompletableFuture.completedFuture(cached);
             }
 
-            // 解析AI响应，提取题目信息
-            List<VisionQuestion> questions = parseQuestionSegmentationResponse(result.getContent());
-            
-            log.info("视觉推理题目分割完成，识别到{}道题目", questions.size());
-            return new VisionQuestionResult(true, questions, result.getReasoningContent(), 
-                    result.getConfidence(), null);
+            ImagePreprocessor.PreparedImage prepared = imagePreprocessor.prepare(imageBytes, contentType, decoded);
+            return callVisionAPIAsync(prepared.bytes(), prepared.contentType(), prompt, false).thenApply(result -> {
+                if (!result.isSuccess()) {
+                    return new VisionQuestionResult(false, null, result.getReasoningContent(),
+                            result.getConfidence(), result.getError());
+                }
+
+                // 解析AI响应，提取题目信息
+                List<VisionQuestion> questions = parseQuestionSegmentationResponse(result.getContent());
+
+                log.info("视觉推理题目分割完成，识别到{}道题目", questions.size());
+                VisionQuestionResult segmented = new VisionQuestionResult(true, questions, result.getReasoningContent(),
+                        result.getConfidence(), null);
+                if (!questions.isEmpty()) {
+                    visionResultCache.put(cacheKind, digest, segmented);
+                }
+                return segmented;
+            });
 
         } catch (Exception e) {
             log.error("视觉推理题目分割失败", e);
-            return new VisionQuestionResult(false, null, "", 0.0, "分割过程中发生错误：" + e.getMessage());
+            return CompletableFuture.completedFuture(
+                    new VisionQuestionResult(false, null, "", 0.0, "分割过程中发生错误：" + e.getMessage()));
         }
     }
 
     /**
-     * 调用百炼视觉推理API
+     * 预处理或感知哈希需要像素时才解码（两者都关闭时不做无用的解码）
      */
-    private VisionResult callVisionAPI(MultipartFile file, String prompt, boolean useThinking) {
+    private ImagePreprocessor.DecodedImage decodeIfNeeded(byte[] imageBytes) {
+        return imagePreprocessor.isEnabled() || visionResultCache.isPerceptualEnabled()
+                ? imagePreprocessor.decode(imageBytes)
+                : null;
+    }
+
+    /**
+     * 调用百炼视觉推理API（异步，复用共享连接池；瞬时错误重试，长尾请求对冲）
+     */
+    private CompletableFuture<VisionResult> callVisionAPIAsync(byte[] imageBytes, String contentType,
+                                                              String prompt, boolean useThinking) {
         try {
             // 检查API配置
             log.debug("检查API配置 - apiKey: {}, baseUrl: {}, model: {}", 
@@ -148,62 +249,24 @@ public class VisionReasoningService {
             
             if (apiKey == null || apiKey.equals("not-configured")) {
                 log.warn("百炼视觉推理API未配置，apiKey: {}", apiKey);
-                return new VisionResult(false, "", "", 0.0, "API未配置，请设置DASHSCOPE_API_KEY环境变量");
+                return CompletableFuture.completedFuture(
+                        new VisionResult(false, "", "", 0.0, "API未配置，请设置DASHSCOPE_API_KEY环境变量"));
             }
 
-            // 将图片转换为base64
-            byte[] imageBytes = file.getBytes();
-            String base64Image = Base64.getEncoder().encodeToString(imageBytes);
-            String imageUrl = "data:" + file.getContentType() + ";base64," + base64Image;
-
-            // 构建请求体
-            JsonObject requestBody = new JsonObject();
-            requestBody.addProperty("model", visionModel);
-
-            JsonArray messages = new JsonArray();
-            JsonObject message = new JsonObject();
-            message.addProperty("role", "user");
-
-            // 构建多模态内容
-            JsonArray content = new JsonArray();
-            
-            // 添加图片
-            JsonObject imageContent = new JsonObject();
-            imageContent.addProperty("type", "image_url");
-            JsonObject imageUrl_obj = new JsonObject();
-            imageUrl_obj.addProperty("url", imageUrl);
-            imageContent.add("image_url", imageUrl_obj);
-            content.add(imageContent);
-
-            // 添加文本提示
-            JsonObject textContent = new JsonObject();
-            textContent.addProperty("type", "text");
-            textContent.addProperty("text", prompt);
-            content.add(textContent);
-
-            message.add("content", content);
-            messages.add(message);
-            requestBody.add("messages", messages);
-
-            // 设置参数（直接添加到requestBody，不使用extra_body）
-            requestBody.addProperty("temperature", temperature);
-            requestBody.addProperty("max_tokens", maxTokens);
-            requestBody.addProperty("stream", false);
-            
+            // 设置参数（直接添加到请求体顶层，不使用extra_body）
+            Map<String, Object> params = new LinkedHashMap<>();
+            params.put("temperature", temperature);
+            params.put("max_tokens", maxTokens);
+            params.put("stream", false);
             if (useThinking && enableThinking) {
-                requestBody.addProperty("enable_thinking", true);
-                requestBody.addProperty("thinking_budget", thinkingBudget);
+                params.put("enable_thinking", true);
+                params.put("thinking_budget", thinkingBudget);
             }
 
-            // 构建HTTP请求
-            RequestBody body = RequestBody.create(
-                    requestBody.toString(),
-                    MediaType.get("application/json; charset=utf-8")
-            );
+            // 构建HTTP请求：图片在写出时流式 base64 编码，不在堆上保留编码后的副本
+            RequestBody body = new VisionRequestBody(objectMapper, visionModel, contentType, imageBytes, prompt, params);
 
-            String apiUrl = baseUrl.endsWith("/")
-                    ? baseUrl + "chat/completions"
-                    : baseUrl + "/chat/completions";
+            String apiUrl = SimpleOpenAIClient.buildUrl(baseUrl, "chat/completions");
 
             Request request = new Request.Builder()
                     .url(apiUrl)
@@ -215,71 +278,53 @@ public class VisionReasoningService {
             log.debug("发送视觉推理请求到百炼平台...");
             long startTime = System.currentTimeMillis();
 
-            try (Response response = httpClient.newCall(request).execute()) {
-                long endTime = System.currentTimeMillis();
-                log.info("收到视觉推理响应，耗时: {} 毫秒", (endTime - startTime));
+            long estimatedTokens = VISION_IMAGE_TOKENS + prompt.length() / 2 + maxTokens;
+            return visionRequestExecutor.execute(visionModel, estimatedTokens, request, Duration.ofSeconds(readTimeoutSeconds))
+                    .thenApply(response -> {
+                        try (response) {
+                            long endTime = System.currentTimeMillis();
+                            log.info("收到视觉推理响应，耗时: {} 毫秒", (endTime - startTime));
 
-                if (!response.isSuccessful()) {
-                    log.error("视觉推理API调用失败，状态码：{}", response.code());
-                    return new VisionResult(false, "", "", 0.0, "API调用失败，状态码：" + response.code());
-                }
+                            if (!response.isSuccessful()) {
+                                log.error("视觉推理API调用失败，状态码：{}", response.code());
+                                return new VisionResult(false, "", "", 0.0, "API调用失败，状态码：" + response.code());
+                            }
 
-                String responseBody = response.body().string();
-                log.debug("视觉推理响应内容：{}", responseBody);
-
-                return parseVisionResponse(responseBody);
-            }
+                            return parseVisionResponse(response.body());
+                        }
+                    })
+                    .exceptionally(e -> {
+                        Throwable cause = SimpleOpenAIClient.unwrap(e);
+                        log.error("调用视觉推理API异常", cause);
+                        return new VisionResult(false, "", "", 0.0, "API调用异常：" + cause.getMessage());
+                    });
 
-        } catch (IOException e) {
-            log.error("调用视觉推理API异常", e);
-            return new VisionResult(false, "", "", 0.0, "API调用异常：" + e.getMessage());
         } catch (Exception e) {
             log.error("视觉推理处理异常", e);
-            return new VisionResult(false, "", "", 0.0, "处理异常：" + e.getMessage());
+            return CompletableFuture.completedFuture(
+                    new VisionResult(false, "", "", 0.0, "处理异常：" + e.getMessage()));
         }
     }
 
     /**
-     * 解析视觉推理API响应
+     * 解析视觉推理API响应（流式解码，推理过程较长时不缓冲整个响应体）
      */
-    private VisionResult parseVisionResponse(String responseBody) {
+    private VisionResult parseVisionResponse(ResponseBody responseBody) {
         try {
-            JsonObject responseJson = new Gson().fromJson(responseBody, JsonObject.class);
-            
-            if (responseJson.has("choices")) {
-                JsonArray choices = responseJson.getAsJsonArray("choices");
-                if (choices.size() > 0) {
-                    JsonObject firstChoice = choices.get(0).getAsJsonObject();
-                    if (firstChoice.has("message")) {
-                        JsonObject messageObj = firstChoice.getAsJsonObject("message");
-                        
-                        String content = "";
-                        String reasoningContent = "";
-                        
-                        // 获取主要内容
-                        if (messageObj.has("content")) {
-                            content = messageObj.get("content").getAsString();
-                        }
-                        
-                        // 获取推理过程（如果有）
-                        if (messageObj.has("reasoning_content")) {
-                            reasoningContent = messageObj.get("reasoning_content").getAsString();
-                        }
-                        
-                        double confidence = 0.9; // 默认置信度
-                        
-                        if (content != null && !content.trim().isEmpty()) {
-                            log.info("视觉推理成功，内容长度：{}，推理过程长度：{}", 
-                                    content.length(), reasoningContent.length());
-                            return new VisionResult(true, content.trim(), reasoningContent, confidence, null);
-                        }
-                    }
-                }
+            LlmResponseDecoder.ChatCompletion completion = responseDecoder.decode(responseBody);
+            String reasoningContent = completion.reasoningContent() != null ? completion.reasoningContent() : "";
+            double confidence = 0.9; // 默认置信度
+
+            if (completion.hasContent()) {
+                log.info("视觉推理成功，内容长度：{}，推理过程长度：{}",
+                        completion.content().length(), reasoningContent.length());
+                log.debug("视觉推理输出内容：{}", completion.content());
+                return new VisionResult(true, completion.content().trim(), reasoningContent, confidence, null);
             }
-            
+
             log.warn("无法从视觉推理响应中提取内容");
             return new VisionResult(false, "", "", 0.0, "无法提取响应内容");
-            
+
         } catch (Exception e) {
             log.error("解析视觉推理响应失败", e);
             return new VisionResult(false, "", "", 0.0, "响应解析失败：" + e.getMessage());
@@ -346,36 +391,34 @@ public class VisionReasoningService {
                 return questions;
             }
             
-            JsonObject jsonResponse = new Gson().fromJson(jsonPart, JsonObject.class);
-            
-            if (jsonResponse.has("questions")) {
-                JsonArray questionsArray = jsonResponse.getAsJsonArray("questions");
-                
-                for (int i = 0; i < questionsArray.size(); i++) {
-                    JsonObject questionObj = questionsArray.get(i).getAsJsonObject();
-                    
-                    int id = questionObj.has("id") ? questionObj.get("id").getAsInt() : i + 1;
-                    String content = questionObj.has("content") ? questionObj.get("content").getAsString() : "";
-                    String type = questionObj.has("type") ? questionObj.get("type").getAsString() : "未知";
-                    String subject = questionObj.has("subject") ? questionObj.get("subject").getAsString() : "未分类";
-                    double confidence = questionObj.has("confidence") ? questionObj.get("confidence").getAsDouble() : 0.8;
-                    
-                    VisionQuestionBounds bounds = null;
-                    if (questionObj.has("bounds") && questionObj.get("bounds").isJsonObject()) {
-                        JsonObject boundsObj = questionObj.getAsJsonObject("bounds");
-                        double top = boundsObj.has("top") ? boundsObj.get("top").getAsDouble() : (double) i / Math.max(1, questionsArray.size());
-                        double left = boundsObj.has("left") ? boundsObj.get("left").getAsDouble() : 0.0;
-                        double width = boundsObj.has("width") ? boundsObj.get("width").getAsDouble() : 1.0;
-                        double height = boundsObj.has("height") ? boundsObj.get("height").getAsDouble() : (1.0 / Math.max(1, questionsArray.size()));
-                        bounds = new VisionQuestionBounds(top, left, width, height);
-                    }
-                    
-                    if (!content.trim().isEmpty()) {
-                        questions.add(new VisionQuestion(id, content.trim(), type, subject, confidence, bounds));
-                    }
+            SegmentationPayload payload = responseDecoder.readPayload(jsonPart, SegmentationPayload.class);
+            List<QuestionPayload> items = payload.questions() != null ? payload.questions() : List.of();
+            int total = Math.max(1, items.size());
+
+            for (int i = 0; i < items.size(); i++) {
+                QuestionPayload item = items.get(i);
+                if (item == null || item.content() == null || item.content().trim().isEmpty()) {
+                    continue;
+                }
+
+                int id = item.id() != null ? item.id() : i + 1;
+                String type = item.type() != null ? item.type() : "未知";
+                String subject = item.subject() != null ? item.subject() : "未分类";
+                double confidence = item.confidence() != null ? item.confidence() : 0.8;
+
+                VisionQuestionBounds bounds = null;
+                if (item.bounds() != null) {
+                    BoundsPayload b = item.bounds();
+                    double top = b.top() != null ? b.top() : (double) i / total;
+                    double left = b.left() != null ? b.left() : 0.0;
+                    double width = b.width() != null ? b.width() : 1.0;
+                    double height = b.height() != null ? b.height() : (1.0 / total);
+                    bounds = new VisionQuestionBounds(top, left, width, height);
                 }
+
+                questions.add(new VisionQuestion(id, item.content().trim(), type, subject, confidence, bounds));
             }
-            
+
         } catch (Exception e) {
             log.error("解析题目分割响应失败", e);
         }
@@ -405,7 +448,7 @@ public class VisionReasoningService {
     /**
      * 验证是否为图片文件
      */
-    private boolean isImageFile(String contentType) {
+    public boolean isImageFile(String contentType) {
         return contentType.startsWith("image/") &&
                 (contentType.contains("jpeg") ||
                         contentType.contains("jpg") ||
@@ -415,6 +458,16 @@ public class VisionReasoningService {
                         contentType.contains("webp"));
     }
 
+    /**
+     * 模型输出的题目分割 JSON
+     */
+    record SegmentationPayload(List<QuestionPayload> questions) {}
+
+    record QuestionPayload(Integer id, String content, String type, String subject,
+                           Double confidence, BoundsPayload bounds) {}
+
+    record BoundsPayload(Double top, Double left, Double width, Double height) {}
+
     /**
      * 视觉推理结果
      */
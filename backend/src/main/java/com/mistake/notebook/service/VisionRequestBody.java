@@ -0,0 +1,75 @@
+package com.mistake.notebook.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * 视觉推理请求体：JSON 信封预先序列化，图片在写入 socket 时才边读边做 base64 编码。
+ * 不再同时持有 base64 字符串、data URL、JSON 对象及其 toString 副本，单次请求的堆占用约等于图片本身大小。
+ * 请求体可重复写出（重试 / 对冲会再次发送）。
+ */
+final class VisionRequestBody extends RequestBody {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final byte[] head;
+    private final byte[] image;
+    private final byte[] tail;
+
+    /**
+     * @param params 除 model / messages 以外的顶层参数（temperature、max_tokens 等）
+     */
+    VisionRequestBody(ObjectMapper objectMapper, String model, String contentType, byte[] image,
+                      String prompt, Map<String, Object> params) throws JsonProcessingException {
+        String headJson = "{\"model\":" + objectMapper.writeValueAsString(model)
+                + ",\"messages\":[{\"role\":\"user\",\"content\":[{\"type\":\"image_url\",\"image_url\":{\"url\":\"data:"
+                + contentType.replaceAll("[^A-Za-z0-9/+.\\-]", "") + ";base64,";
+        String paramsJson = objectMapper.writeValueAsString(params);
+        String tailJson = "\"}},{\"type\":\"text\",\"text\":" + objectMapper.writeValueAsString(prompt) + "}]}]"
+                + (paramsJson.length() > 2 ? "," + paramsJson.substring(1) : "}");
+        this.head = headJson.getBytes(StandardCharsets.UTF_8);
+        this.image = image;
+        this.tail = tailJson.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return head.length + 4L * ((image.length + 2) / 3) + tail.length;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(head);
+        OutputStream raw = sink.outputStream();
+        // Base64 包装流关闭时才写出末尾填充，这里屏蔽对底层 sink 的 close
+        try (OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(raw) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        })) {
+            encoder.write(image);
+        }
+        sink.write(tail);
+    }
+}
@@ -0,0 +1,226 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.config.AiLane;
+import com.mistake.notebook.config.LlmRateLimiter;
+import com.mistake.notebook.config.SimpleOpenAIClient;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 视觉推理请求执行策略：重试 + 对冲。
+ * 重试：429 / 5xx / 网络超时等瞬时错误按"全抖动"指数退避重试（429 优先遵循 Retry-After），
+ * 4xx 参数错误与本地限流拒绝不重试。
+ * 对冲：首个请求超过近期 p95 耗时仍未返回时再发一个相同请求，谁先成功用谁，落败方被取消。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class VisionRequestExecutor {
+
+    private static final Set<Integer> RETRYABLE_STATUS = Set.of(408, 429, 500, 502, 503, 504);
+    private static final int LATENCY_WINDOW = 200;
+
+    private final SimpleOpenAIClient openAIClient;
+
+    @Value("${ai.vision-retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${ai.vision-retry.base-backoff-ms:1000}")
+    private long baseBackoffMs;
+
+    @Value("${ai.vision-retry.max-backoff-ms:10000}")
+    private long maxBackoffMs;
+
+    @Value("${ai.vision-retry.hedging-enabled:true}")
+    private boolean hedgingEnabled;
+
+    @Value("${ai.vision-retry.hedge-delay-ms:45000}")
+    private long defaultHedgeDelayMs;
+
+    @Value("${ai.vision-retry.hedge-min-delay-ms:5000}")
+    private long minHedgeDelayMs;
+
+    @Value("${ai.vision-retry.hedge-min-samples:20}")
+    private int hedgeMinSamples;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private int latencyCursor;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * 发送视觉请求（请求体需可重复发送）
+     */
+    public CompletableFuture<Response> execute(String model, long estimatedTokens, Request request, Duration readTimeout) {
+        // 重试与对冲在定时线程上发起，先记下调用方的优先级通道
+        return attempt(model, estimatedTokens, request, readTimeout, AiLane.current(), 1);
+    }
+
+    private CompletableFuture<Response> attempt(String model, long estimatedTokens, Request request,
+                                                Duration readTimeout, AiLane lane, int attempt) {
+        return hedged(model, estimatedTokens, request, readTimeout, lane).handle((response, error) -> {
+            if (attempt < maxAttempts && isRetryable(response, error)) {
+                long delay = backoffMs(attempt, response);
+                retries.incrementAndGet();
+                log.warn("视觉推理第 {} 次调用失败（{}），{} 毫秒后重试", attempt,
+                        response != null ? "状态码 " + response.code() : SimpleOpenAIClient.unwrap(error).getMessage(), delay);
+                if (response != null) {
+                    response.close();
+                }
+                Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+                return CompletableFuture.runAsync(() -> { }, delayed)
+                        .thenCompose(ignored -> attempt(model, estimatedTokens, request, readTimeout, lane, attempt + 1));
+            }
+            return response != null
+                    ? CompletableFuture.completedFuture(response)
+                    : CompletableFuture.<Response>failedFuture(SimpleOpenAIClient.unwrap(error));
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * 对冲发送：主请求在对冲阈值内未返回时追加一个请求，取先成功者；两者都失败时返回后失败的结果
+     */
+    private CompletableFuture<Response> hedged(String model, long estimatedTokens, Request request,
+                                               Duration readTimeout, AiLane lane) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        CompletableFuture<Response> primary = timedSend(model, estimatedTokens, request, readTimeout, lane);
+        primary.whenComplete((response, error) -> settle(result, outstanding, response, error, false));
+
+        if (hedgingEnabled) {
+            long delay = hedgeDelayMs();
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                outstanding.incrementAndGet();
+                hedges.incrementAndGet();
+                log.info("视觉推理超过 {} 毫秒未返回，发起对冲请求", delay);
+                CompletableFuture<Response> hedge = timedSend(model, estimatedTokens, request, readTimeout, lane);
+                hedge.whenComplete((response, error) -> settle(result, outstanding, response, error, true));
+                result.whenComplete((response, error) -> hedge.cancel(true));
+            });
+        }
+        result.whenComplete((response, error) -> primary.cancel(true));
+        return result;
+    }
+
+    private void settle(CompletableFuture<Response> result, AtomicInteger outstanding,
+                        Response response, Throwable error, boolean fromHedge) {
+        if (response != null && response.isSuccessful()) {
+            if (result.complete(response)) {
+                if (fromHedge) {
+                    hedgeWins.incrementAndGet();
+                }
+            } else {
+                response.close();
+            }
+            return;
+        }
+        if (outstanding.decrementAndGet() > 0) {
+            // 另一个请求仍在进行，等待它的结果
+            if (response != null) {
+                response.close();
+            }
+            return;
+        }
+        if (response != null) {
+            if (!result.complete(response)) {
+                response.close();
+            }
+        } else if (!(SimpleOpenAIClient.unwrap(error) instanceof CancellationException)) {
+            result.completeExceptionally(SimpleOpenAIClient.unwrap(error));
+        }
+    }
+
+    private CompletableFuture<Response> timedSend(String model, long estimatedTokens, Request request,
+                                                  Duration readTimeout, AiLane lane) {
+        long start = System.currentTimeMillis();
+        CompletableFuture<Response> future = openAIClient.sendLimitedAsync(model, estimatedTokens, request, readTimeout, lane);
+        future.whenComplete((response, error) -> {
+            if (response != null && response.isSuccessful()) {
+                recordLatency(System.currentTimeMillis() - start);
+            }
+        });
+        return future;
+    }
+
+    private boolean isRetryable(Response response, Throwable error) {
+        if (response != null) {
+            return RETRYABLE_STATUS.contains(response.code());
+        }
+        Throwable cause = SimpleOpenAIClient.unwrap(error);
+        if (cause instanceof LlmRateLimiter.RateLimitRejectedException || cause instanceof CancellationException) {
+            return false;
+        }
+        // 超时、连接失败、连接被重置等网络层错误
+        return cause instanceof IOException;
+    }
+
+    /**
+     * 全抖动指数退避：random(0, min(max, base * 2^(attempt-1)))；429 携带 Retry-After 时取两者较大值
+     */
+    private long backoffMs(int attempt, Response response) {
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (response != null && response.header("Retry-After") != null) {
+            try {
+                long retryAfterMs = TimeUnit.SECONDS.toMillis(Long.parseLong(response.header("Retry-After").trim()));
+                delay = Math.max(delay, Math.min(retryAfterMs, maxBackoffMs * 3));
+            } catch (NumberFormatException ignored) {
+                // HTTP 日期格式的 Retry-After 直接按退避处理
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * 对冲阈值：样本足够时取近期成功调用的 p95 耗时，否则使用配置的默认值
+     */
+    private synchronized long hedgeDelayMs() {
+        if (latencyCount < hedgeMinSamples) {
+            return defaultHedgeDelayMs;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        long p95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+        return Math.max(minHedgeDelayMs, p95);
+    }
+
+    private synchronized void recordLatency(long latencyMs) {
+        latencies[latencyCursor] = latencyMs;
+        latencyCursor = (latencyCursor + 1) % LATENCY_WINDOW;
+        latencyCount = Math.min(LATENCY_WINDOW, latencyCount + 1);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("retries", retries.get());
+        stats.put("hedgingEnabled", hedgingEnabled);
+        stats.put("hedgeDelayMs", hedgeDelayMs());
+        stats.put("hedges", hedges.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        return stats;
+    }
+}
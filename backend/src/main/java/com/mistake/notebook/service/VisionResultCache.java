@@ -0,0 +1,225 @@
+package com.mistake.notebook.service;
+
+import com.mistake.notebook.config.TtlLruCache;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 视觉识别结果缓存。
+ * 精确匹配：图片字节的 SHA-256；近似匹配（可选，默认关闭）：256 位差值感知哈希（dHash），
+ * 用于识别同一张照片被重新压缩/转码后的再次上传。作业照片大多是白底、细节少，
+ * 同一本练习册的不同页面也可能得到相近的哈希，因此近似匹配还要求宽高比一致，并取距离最近的条目。
+ * 只缓存识别成功的结果。
+ */
+@Component
+@Slf4j
+public class VisionResultCache {
+
+    private static final int HASH_WIDTH = 17;
+    private static final int HASH_HEIGHT = 16;
+
+    /**
+     * 近似匹配允许的宽高比相对偏差
+     */
+    private static final double ASPECT_TOLERANCE = 0.01;
+
+    @Value("${ai.vision-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.vision-cache.max-entries:500}")
+    private int maxEntries;
+
+    @Value("${ai.vision-cache.ttl-hours:72}")
+    private long ttlHours;
+
+    @Value("${ai.vision-cache.perceptual-enabled:false}")
+    private boolean perceptualEnabled;
+
+    /**
+     * 感知哈希允许的最大汉明距离（共 256 位）
+     */
+    @Value("${ai.vision-cache.perceptual-max-distance:8}")
+    private int perceptualMaxDistance;
+
+    private TtlLruCache<String, CachedResult> cache;
+
+    private final AtomicLong exactHits = new AtomicLong();
+    private final AtomicLong perceptualHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        cache = new TtlLruCache<>(maxEntries, TimeUnit.HOURS.toMillis(ttlHours));
+    }
+
+    /**
+     * 计算图片的精确摘要；缓存关闭时返回 null。感知哈希需要解码图片，只在精确匹配未命中后由 fingerprint 计算
+     */
+    public ImageDigest digest(byte[] imageBytes) {
+        if (!enabled || imageBytes == null) {
+            return null;
+        }
+        return new ImageDigest(sha256(imageBytes), null);
+    }
+
+    /**
+     * 精确匹配查询，kind 区分识别任务（文字识别/题目分割）及模型，不同任务的结果互不复用
+     */
+    public <T> T get(String kind, ImageDigest digest, Class<T> type) {
+        if (digest == null) {
+            return null;
+        }
+        CachedResult hit = cache.get(kind + ":" + digest.sha256());
+        if (hit != null && type.isInstance(hit.result())) {
+            exactHits.incrementAndGet();
+            return type.cast(hit.result());
+        }
+        return null;
+    }
+
+    public boolean isPerceptualEnabled() {
+        return enabled && perceptualEnabled;
+    }
+
+    /**
+     * 精确匹配未命中后补充感知哈希，复用预处理用的子采样解码结果（近似匹配关闭或无法解码时原样返回）
+     */
+    public ImageDigest fingerprint(ImageDigest digest, ImagePreprocessor.DecodedImage decoded) {
+        if (digest == null || !perceptualEnabled || decoded == null || digest.perceptual() != null) {
+            return digest;
+        }
+        return new ImageDigest(digest.sha256(), perceptualHash(decoded));
+    }
+
+    /**
+     * 近似匹配查询：宽高比一致且汉明距离不超过阈值的条目中取距离最小的；未命中计入 misses
+     */
+    public <T> T findSimilar(String kind, ImageDigest digest, Class<T> type) {
+        if (digest == null) {
+            return null;
+        }
+        Fingerprint target = digest.perceptual();
+        if (target != null) {
+            String prefix = kind + ":";
+            CachedResult similar = cache.findClosest((key, value) -> {
+                if (!key.startsWith(prefix) || value.perceptual() == null || !type.isInstance(value.result())
+                        || !target.sameAspect(value.perceptual())) {
+                    return -1;
+                }
+                int distance = target.distance(value.perceptual());
+                return distance <= perceptualMaxDistance ? distance : -1;
+            });
+            if (similar != null) {
+                perceptualHits.incrementAndGet();
+                log.info("视觉缓存近似命中（感知哈希），跳过视觉推理调用");
+                return type.cast(similar.result());
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String kind, ImageDigest digest, Object result) {
+        if (digest == null || result == null) {
+            return;
+        }
+        cache.put(kind + ":" + digest.sha256(), new CachedResult(digest.perceptual(), result));
+    }
+
+    public Map<String, Object> stats() {
+        long hits = exactHits.get() + perceptualHits.get();
+        long total = hits + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("perceptualEnabled", perceptualEnabled);
+        stats.put("entries", cache.size());
+        stats.put("evictions", cache.getEvictions());
+        stats.put("exactHits", exactHits.get());
+        stats.put("perceptualHits", perceptualHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hits / total);
+        return stats;
+    }
+
+    /**
+     * dHash：缩放到 17x16 灰度图，逐行比较相邻像素亮度得到 256 位指纹，并记录原图宽高
+     */
+    private Fingerprint perceptualHash(ImagePreprocessor.DecodedImage decoded) {
+        try {
+            BufferedImage source = decoded.image();
+            BufferedImage small = new BufferedImage(HASH_WIDTH, HASH_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g = small.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(source, 0, 0, HASH_WIDTH, HASH_HEIGHT, null);
+            } finally {
+                g.dispose();
+            }
+            long[] bits = new long[(HASH_WIDTH - 1) * HASH_HEIGHT / 64];
+            int index = 0;
+            for (int y = 0; y < HASH_HEIGHT; y++) {
+                for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                    int left = small.getRaster().getSample(x, y, 0);
+                    int right = small.getRaster().getSample(x + 1, y, 0);
+                    if (left > right) {
+                        bits[index / 64] |= 1L << (index % 64);
+                    }
+                    index++;
+                }
+            }
+            return new Fingerprint(bits, decoded.sourceWidth(), decoded.sourceHeight());
+        } catch (RuntimeException e) {
+            log.debug("计算图片感知哈希失败：{}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 图片指纹：精确摘要 + 可选感知哈希
+     */
+    public record ImageDigest(String sha256, Fingerprint perceptual) {}
+
+    /**
+     * 感知哈希与原图宽高
+     */
+    public record Fingerprint(long[] bits, int width, int height) {
+
+        int distance(Fingerprint other) {
+            int distance = 0;
+            for (int i = 0; i < bits.length; i++) {
+                distance += Long.bitCount(bits[i] ^ other.bits[i]);
+            }
+            return distance;
+        }
+
+        boolean sameAspect(Fingerprint other) {
+            double aspect = (double) width / height;
+            double otherAspect = (double) other.width / other.height;
+            return Math.abs(aspect - otherAspect) <= aspect * ASPECT_TOLERANCE;
+        }
+    }
+
+    private record CachedResult(Fingerprint perceptual, Object result) {}
+}
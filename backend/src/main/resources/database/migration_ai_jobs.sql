@@ -0,0 +1,131 @@
+-- ============================================================
+-- 迁移脚本：拍照上传后台任务 + AI 任务队列
+-- 说明：dev 环境 spring.jpa.hibernate.ddl-auto=update 会自动建表，
+--       prod 环境为 validate，部署前需先执行本脚本。
+--       可重复执行：加列/加索引前先查 information_schema，已存在则跳过；
+--       补数据语句只补尚无记录的题目，重复执行不会产生重复行。
+-- ============================================================
+
+USE mistake_notebook;
+
+-- 1. 拍照上传任务表（保存图片后立即返回任务ID，识别与 AI 解析在后台分阶段完成）
+CREATE TABLE IF NOT EXISTS upload_jobs (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    image_url VARCHAR(255) NOT NULL COMMENT '图片访问URL',
+    original_filename VARCHAR(255) NULL COMMENT '原始文件名',
+    content_type VARCHAR(50) NULL COMMENT '图片类型',
+    stage VARCHAR(20) NOT NULL DEFAULT 'QUEUED' COMMENT '阶段: QUEUED/RECOGNIZING/ANALYZING/COMPLETED/FAILED',
+    question_id BIGINT NULL COMMENT '识别完成后创建的题目ID',
+    error TEXT NULL COMMENT '失败原因',
+    created_at DATETIME NULL,
+    updated_at DATETIME NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='拍照上传任务';
+
+-- 2. AI 后台任务队列（替代进程内 @Async 线程池，重启不丢任务）
+CREATE TABLE IF NOT EXISTS ai_jobs (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    type VARCHAR(30) NOT NULL COMMENT '任务类型: QUESTION_ANALYSIS/UPLOAD_RECOGNITION',
+    target_id BIGINT NOT NULL COMMENT '题目ID或上传任务ID',
+    status VARCHAR(20) NOT NULL DEFAULT 'QUEUED' COMMENT '状态: QUEUED/RUNNING/SUCCEEDED/FAILED',
+    attempts INT NOT NULL DEFAULT 0 COMMENT '已执行次数',
+    available_at DATETIME NOT NULL COMMENT '最早可领取时间',
+    locked_by VARCHAR(100) NULL COMMENT '领取节点',
+    locked_until DATETIME NULL COMMENT '租约到期时间',
+    last_error TEXT NULL COMMENT '最近一次失败原因',
+    created_at DATETIME NULL,
+    updated_at DATETIME NULL,
+    KEY idx_ai_jobs_status_available (status, available_at),
+    KEY idx_ai_jobs_target (type, target_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='AI后台任务队列';
+
+-- 把历史上停留在 PENDING/PROCESSING 的题目补入队列
+INSERT INTO ai_jobs (type, target_id, status, attempts, available_at, created_at, updated_at)
+SELECT 'QUESTION_ANALYSIS', q.id, 'QUEUED', 0, NOW(), NOW(), NOW()
+FROM questions q
+WHERE q.ai_status IN ('PENDING', 'PROCESSING') AND (q.is_deleted = 0 OR q.is_deleted IS NULL)
+  AND NOT EXISTS (SELECT 1 FROM ai_jobs j
+                  WHERE j.type = 'QUESTION_ANALYSIS' AND j.target_id = q.id AND j.status IN ('QUEUED', 'RUNNING'));
+
+-- 3. 优先级通道：USER_VISIBLE(单题解析/拍照识别/重试) / BULK(整页批量保存/恢复扫描)
+SET @ddl = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE ai_jobs ADD COLUMN lane VARCHAR(20) NOT NULL DEFAULT ''USER_VISIBLE'' COMMENT ''优先级通道: USER_VISIBLE/BULK'' AFTER target_id',
+    'DO 0')
+    FROM information_schema.COLUMNS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ai_jobs' AND COLUMN_NAME = 'lane');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE ai_jobs ADD KEY idx_ai_jobs_lane_status_available (lane, status, available_at)',
+    'DO 0')
+    FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ai_jobs' AND INDEX_NAME = 'idx_ai_jobs_lane_status_available');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- 4. 按客户端公平调度：提交方标识（前端 X-Client-Id，缺失时为来源 IP，定时任务为 system）
+SET @ddl = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE ai_jobs ADD COLUMN client_id VARCHAR(64) NOT NULL DEFAULT ''system'' COMMENT ''提交方标识'' AFTER lane',
+    'DO 0')
+    FROM information_schema.COLUMNS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ai_jobs' AND COLUMN_NAME = 'client_id');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE ai_jobs ADD KEY idx_ai_jobs_client_status (client_id, status)',
+    'DO 0')
+    FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ai_jobs' AND INDEX_NAME = 'idx_ai_jobs_client_status');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- 5. 准入控制按最近完成数估算消化速度
+SET @ddl = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE ai_jobs ADD KEY idx_ai_jobs_status_updated (status, updated_at)',
+    'DO 0')
+    FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ai_jobs' AND INDEX_NAME = 'idx_ai_jobs_status_updated');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- 6. 题目增量同步变更序列（自增 id 即变更序号；新建/修改/AI 结果为 UPSERT，逻辑删除为 DELETE）
+CREATE TABLE IF NOT EXISTS question_changes (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    question_id BIGINT NOT NULL COMMENT '题目ID',
+    type VARCHAR(10) NOT NULL COMMENT '变更类型: UPSERT/DELETE',
+    created_at DATETIME NULL,
+    KEY idx_question_changes_question (question_id),
+    KEY idx_question_changes_created (created_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='题目变更序列';
+
+-- 尚无变更记录的现有题目各补一条 UPSERT，首次同步即可拿到全部题目
+INSERT INTO question_changes (question_id, type, created_at)
+SELECT q.id, 'UPSERT', NOW() FROM questions q
+WHERE (q.is_deleted = 0 OR q.is_deleted IS NULL)
+  AND NOT EXISTS (SELECT 1 FROM question_changes c WHERE c.question_id = q.id)
+ORDER BY q.id;
+
+-- 7. 题目键集分页（GET /questions/page?mode=keyset）按 (created_at, id) 定位
+SET @ddl = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE questions ADD KEY idx_questions_deleted_created (is_deleted, created_at, id)',
+    'DO 0')
+    FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'questions' AND INDEX_NAME = 'idx_questions_deleted_created');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE questions ADD KEY idx_questions_category_deleted_created (category, is_deleted, created_at, id)',
+    'DO 0')
+    FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'questions' AND INDEX_NAME = 'idx_questions_category_deleted_created');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
@@ -0,0 +1,101 @@
+package com.mistake.notebook;
+
+import com.mistake.notebook.dto.QuestionDTO;
+import com.mistake.notebook.entity.Question;
+import com.mistake.notebook.repository.QuestionRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 列表查询的 SQL 语句数回归测试：题目标签不能逐行加载（N+1），
+ * 3 道题与 40 道题的列表应执行相同数量的语句。
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.show-sql=false"
+})
+public class QuestionTagsQueryCountTest {
+
+    private static final int SMALL = 3;
+    private static final int LARGE = 40;
+
+    @Autowired
+    private QuestionRepository questionRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @BeforeEach
+    public void seed() {
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 8, 0);
+        for (int i = 0; i < LARGE; i++) {
+            if (i < SMALL) {
+                entityManager.persist(question("small", "少量", base.plusMinutes(i)));
+            }
+            entityManager.persist(question("large", "大量", base.plusMinutes(i)));
+        }
+        entityManager.flush();
+    }
+
+    @Test
+    public void listQueriesFetchTagsInOneStatement() {
+        assertConstant(1, () -> questionRepository.findByCategoryAndIsDeletedFalseOrderByCreatedAtDesc("small"),
+                () -> questionRepository.findByCategoryAndIsDeletedFalseOrderByCreatedAtDesc("large"));
+        assertConstant(1, () -> questionRepository.findByTagAndIsDeletedFalse("少量"),
+                () -> questionRepository.findByTagAndIsDeletedFalse("大量"));
+        assertConstant(1, () -> questionRepository.findByContentContainingAndIsDeletedFalse("small"),
+                () -> questionRepository.findByContentContainingAndIsDeletedFalse("large"));
+    }
+
+    @Test
+    public void pagedQueriesFetchTagsInOneBatch() {
+        LocalDateTime start = LocalDateTime.of(9999, 12, 31, 0, 0);
+        assertConstant(2,
+                () -> questionRepository.findPageBefore("small", null, start, Long.MAX_VALUE, PageRequest.of(0, 50)),
+                () -> questionRepository.findPageBefore("large", null, start, Long.MAX_VALUE, PageRequest.of(0, 50)));
+    }
+
+    private void assertConstant(long expected, Supplier<List<Question>> small, Supplier<List<Question>> large) {
+        assertEquals(expected, statementsFor(small, SMALL), "少量题目的SQL语句数");
+        assertEquals(expected, statementsFor(large, LARGE), "大量题目的SQL语句数");
+    }
+
+    /**
+     * 在干净的持久化上下文中执行查询并转换为 DTO（访问标签，等同接口序列化），返回执行的语句数
+     */
+    private long statementsFor(Supplier<List<Question>> query, int expectedRows) {
+        entityManager.clear();
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<QuestionDTO> questions = query.get().stream().map(QuestionDTO::fromEntity).toList();
+        assertEquals(expectedRows, questions.size());
+        questions.forEach(dto -> assertEquals(2, dto.getTags().size()));
+        return statistics.getPrepareStatementCount();
+    }
+
+    private Question question(String category, String tag, LocalDateTime createdAt) {
+        Question question = new Question();
+        question.setContent(category + " 题目 " + createdAt);
+        question.setCategory(category);
+        question.setDifficulty(Question.DifficultyLevel.MEDIUM);
+        question.setTags(new ArrayList<>(List.of(tag, "通用")));
+        question.setCreatedAt(createdAt);
+        return question;
+    }
+}
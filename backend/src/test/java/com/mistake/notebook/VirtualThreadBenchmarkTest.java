@@ -0,0 +1,129 @@
+package com.mistake.notebook;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.condition.JRE;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 虚拟线程并发基准：模拟大量阻塞式 AI 调用（等待网络 / JDBC），对比平台线程池与虚拟线程的吞吐。
+ * 需要 JDK 21，默认不运行：mvn -Pvirtual-threads test -Dtest=VirtualThreadBenchmarkTest -Dbenchmark=true
+ */
+@EnabledForJreRange(min = JRE.JAVA_21)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@Slf4j
+public class VirtualThreadBenchmarkTest {
+
+    private static final int TASKS = 1000;
+    private static final long BLOCKING_MS = 100;
+
+    private final Object monitor = new Object();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @Test
+    public void compareBlockingThroughput() throws Exception {
+        long aiTaskPool = run("平台线程池 8（原 aiTaskExecutor）", Executors.newFixedThreadPool(8), this::blockingCall);
+        long tomcatPool = run("平台线程池 200（Tomcat 默认）", Executors.newFixedThreadPool(200), this::blockingCall);
+
+        // ThreadMXBean 只统计平台线程：虚拟线程运行期间的峰值即载体线程 + JVM 自身线程
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long virtual = run("虚拟线程", newVirtualThreadPerTaskExecutor(), this::blockingCall);
+        int peakPlatformThreads = threads.getPeakThreadCount();
+        log.info("虚拟线程运行期间峰值平台线程数：{}（{} 个并发阻塞调用）", peakPlatformThreads, TASKS);
+
+        assertTrue(virtual * 2 < tomcatPool, "虚拟线程吞吐应明显高于 200 个平台线程");
+        assertTrue(virtual * 20 < aiTaskPool, "虚拟线程吞吐应远高于 8 个平台线程");
+        assertTrue(peakPlatformThreads < TASKS / 5, "虚拟线程不应为每个阻塞调用创建平台线程");
+    }
+
+    /**
+     * synchronized 内阻塞钉住载体线程只在 JDK 21-23 成立（JDK 24 起 JEP 491 已取消钉住）
+     */
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21, max = JRE.JAVA_23)
+    public void synchronizedPinsCarrierThreads() throws Exception {
+        long pinned = run("虚拟线程 + synchronized 内阻塞（钉住载体线程）", newVirtualThreadPerTaskExecutor(), this::pinnedCall);
+        long guarded = run("虚拟线程 + ReentrantLock 保护", newVirtualThreadPerTaskExecutor(), this::lockedCall);
+
+        assertTrue(guarded * 3 < pinned, "ReentrantLock 不应钉住载体线程");
+    }
+
+    /**
+     * 模拟一次阻塞式 AI 调用
+     */
+    private void blockingCall() {
+        sleep(BLOCKING_MS);
+    }
+
+    /**
+     * 在 synchronized 内阻塞：JDK 21-23 下会钉住载体线程，并发退化为 CPU 核数
+     */
+    private void pinnedCall() {
+        synchronized (Thread.currentThread()) {
+            sleep(BLOCKING_MS);
+        }
+        synchronized (monitor) {
+            monitor.hashCode();
+        }
+    }
+
+    /**
+     * 阻塞放在锁外、临界区用 ReentrantLock：虚拟线程等待时可卸载
+     */
+    private void lockedCall() {
+        sleep(BLOCKING_MS);
+        lock.lock();
+        try {
+            monitor.hashCode();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long run(String name, ExecutorService executor, Runnable task) throws Exception {
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>(TASKS);
+            for (int i = 0; i < TASKS; i++) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        log.info("{}：{} 个 {}ms 阻塞调用，耗时 {} ms，吞吐 {} 次/秒",
+                name, TASKS, BLOCKING_MS, elapsedMs, Math.round(TASKS * 1000.0 / elapsedMs));
+        return elapsedMs;
+    }
+
+    /**
+     * 以反射获取虚拟线程执行器，保证本类在 JDK 17 下也能编译
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
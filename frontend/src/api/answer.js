@@ -1,20 +1,4 @@
-import { apiClient } from './config'
-
-const CLIENT_ID_KEY = 'ai_chat_client_id'
-
-// 生成/读取稳定的客户端标识，作为后端 SQL 记忆的主键维度
-function getClientId() {
-  try {
-    let id = localStorage.getItem(CLIENT_ID_KEY)
-    if (!id) {
-      id = 'web-' + (crypto?.randomUUID ? crypto.randomUUID() : (Date.now().toString(36) + Math.random().toString(36).slice(2)))
-      localStorage.setItem(CLIENT_ID_KEY, id)
-    }
-    return id
-  } catch {
-    return 'web-anonymous'
-  }
-}
+import { apiClient, API_BASE_URL, getClientId } from './config'
 
 const answerAPI = {
   getClientId,
@@ -35,6 +19,50 @@ const answerAPI = {
     }
   },
 
+  // 流式对话（SSE）：onDelta 逐段接收模型输出，返回完整回复；网络/浏览器不支持时抛错，由调用方回退到 chat
+  async chatStream(messages, questionContext = '', onDelta = () => {}) {
+    const res = await fetch(`${API_BASE_URL}/answer/chat/stream`, {
+      method: 'POST',
+      headers: { 'Content-Type': 'application/json', Accept: 'text/event-stream' },
+      body: JSON.stringify({ messages, questionContext, clientId: getClientId() })
+    })
+    if (!res.ok || !res.body) {
+      throw new Error(`stream failed: ${res.status}`)
+    }
+
+    const reader = res.body.getReader()
+    const decoder = new TextDecoder('utf-8')
+    let buffer = ''
+    let full = ''
+    for (;;) {
+      const { value, done } = await reader.read()
+      if (done) break
+      buffer += decoder.decode(value, { stream: true })
+      let sep
+      while ((sep = buffer.indexOf('\n\n')) >= 0) {
+        const raw = buffer.slice(0, sep)
+        buffer = buffer.slice(sep + 2)
+        let event = 'message'
+        let data = ''
+        raw.split('\n').forEach(line => {
+          if (line.startsWith('event:')) event = line.slice(6).trim()
+          else if (line.startsWith('data:')) data += line.slice(5)
+        })
+        if (!data) continue
+        const payload = JSON.parse(data)
+        if (event === 'delta') {
+          full += payload.content || ''
+          onDelta(payload.content || '', full)
+        } else if (event === 'done') {
+          return { success: true, reply: payload.reply || full }
+        } else if (event === 'error') {
+          return { success: false, reply: full || payload.message }
+        }
+      }
+    }
+    return { success: !!full, reply: full || '抱歉，我这边出了点问题，请稍后再试。' }
+  },
+
   // 从后端 SQL 读取记忆状态，用于个性化问候
   async getMemoryStatus() {
     try {
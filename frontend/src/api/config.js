@@ -7,6 +7,22 @@ import axios from 'axios'
 // 生产环境 (npm run build): /api (通过 Nginx 代理)
 export const API_BASE_URL = process.env.VUE_APP_API_BASE_URL || 'http://localhost:8080/api'
 
+const CLIENT_ID_KEY = 'ai_chat_client_id'
+
+// 生成/读取稳定的客户端标识，作为后端 SQL 记忆的主键维度，也用于 AI 任务按客户端公平调度
+export function getClientId() {
+  try {
+    let id = localStorage.getItem(CLIENT_ID_KEY)
+    if (!id) {
+      id = 'web-' + (crypto?.randomUUID ? crypto.randomUUID() : (Date.now().toString(36) + Math.random().toString(36).slice(2)))
+      localStorage.setItem(CLIENT_ID_KEY, id)
+    }
+    return id
+  } catch {
+    return 'web-anonymous'
+  }
+}
+
 // 创建默认 axios 实例（用于普通 API 请求）
 export const apiClient = axios.create({
   baseURL: API_BASE_URL,
@@ -23,12 +39,13 @@ export const uploadClient = axios.create({
   // 不设置 Content-Type，让 axios 自动设置 FormData 的 Content-Type
 })
 
-// 通用请求拦截器（添加 token）
+// 通用请求拦截器（添加 token 与客户端标识）
 const requestInterceptor = (config) => {
   const token = localStorage.getItem('token')
   if (token) {
     config.headers.Authorization = `Bearer ${token}`
   }
+  config.headers['X-Client-Id'] = getClientId()
   return config
 }
 
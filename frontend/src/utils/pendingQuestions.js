@@ -1,4 +1,4 @@
-import { apiClient } from '../api/config'
+import { apiClient, API_BASE_URL } from '../api/config'
 import { decoratePendingItem, isPendingQuestion } from './questionFormat'
 
 export async function fetchPendingQuestions() {
@@ -20,25 +20,97 @@ export async function fetchPendingQuestions() {
   return []
 }
 
-export function startPendingPoll(onUpdate, intervalMs = 5000) {
-  let timer = null
+async function fetchQuestion(id) {
+  const res = await apiClient.get(`/questions/${id}`)
+  return res.data?.data || null
+}
+
+// 订阅后端 AI 状态推送（SSE），在本地维护"解析中"列表，不再定时拉取全部待解析题目。
+// 仅在（重）连接时全量同步一次；浏览器不支持或连接断开期间按 intervalMs 回退为轮询，
+// 另有低频兜底同步（多节点部署时状态变化可能发生在其它节点）
+export function startPendingPoll(onUpdate, intervalMs = 5000, resyncMs = 60000) {
   let stopped = false
+  let source = null
+  let fallbackTimer = null
+  let resyncTimer = null
+  const items = new Map()
+
+  const emit = () => {
+    const list = [...items.values()]
+      .filter(isPendingQuestion)
+      .map((q, i) => decoratePendingItem(q, i))
+    onUpdate(list)
+  }
 
-  const tick = async () => {
+  const resync = async () => {
     if (stopped) return
     try {
       const list = await fetchPendingQuestions()
-      onUpdate(list)
+      items.clear()
+      list.forEach((q) => items.set(q.id, q))
+      emit()
+    } catch (e) {
+      console.warn('pending sync error', e)
+    }
+  }
+
+  const applyEvent = async (event) => {
+    const { questionId, aiStatus, aiError } = event
+    const existing = items.get(questionId)
+    if (existing) {
+      items.set(questionId, { ...existing, aiStatus, aiError })
+      emit()
+      return
+    }
+    if (aiStatus === 'completed') return
+    try {
+      const question = await fetchQuestion(questionId)
+      if (question && !stopped) {
+        items.set(questionId, { ...question, aiStatus, aiError })
+        emit()
+      }
     } catch (e) {
-      console.warn('pending poll error', e)
+      console.warn('fetch question error', e)
     }
   }
 
-  tick()
-  timer = setInterval(tick, intervalMs)
+  const startFallback = () => {
+    if (!fallbackTimer) fallbackTimer = setInterval(resync, intervalMs)
+  }
+
+  const stopFallback = () => {
+    if (fallbackTimer) clearInterval(fallbackTimer)
+    fallbackTimer = null
+  }
+
+  if (typeof EventSource === 'undefined') {
+    resync()
+    startFallback()
+  } else {
+    source = new EventSource(`${API_BASE_URL}/questions/events`)
+    // 首次连接与每次自动重连后都会收到 ready 事件，此时全量同步一次以补上断线期间的变化
+    source.addEventListener('ready', () => {
+      stopFallback()
+      resync()
+    })
+    source.addEventListener('ai-status', (e) => {
+      try {
+        applyEvent(JSON.parse(e.data))
+      } catch (err) {
+        console.warn('bad ai-status event', err)
+      }
+    })
+    source.onerror = () => {
+      // EventSource 会自动重连，期间回退为轮询
+      startFallback()
+    }
+    resyncTimer = setInterval(resync, resyncMs)
+  }
 
   return () => {
     stopped = true
-    if (timer) clearInterval(timer)
+    stopFallback()
+    if (resyncTimer) clearInterval(resyncTimer)
+    if (source) source.close()
   }
 }